@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pluggable message data compression. Implementations need a public no argument constructor and must be thread safe -
+ * compression and decompression are called from different framework threads at the same time.
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ * @see com.noqms.framework.DeflateCompressor
+ */
+public interface Compressor {
+    /**
+     * @return the name advertised to other microservices - senders only compress for receivers with the same name
+     */
+    public String getName();
+
+    /**
+     * @param in  the data from its position to its limit
+     * @param out room for the compressed data from its position to its limit
+     * @return the number of compressed bytes written to out, or -1 if they would not fit
+     */
+    public int compress(ByteBuffer in, ByteBuffer out);
+
+    /**
+     * @param in  the compressed data from its position to its limit
+     * @param out exactly the room needed for the decompressed data from its position to its limit
+     */
+    public void decompress(ByteBuffer in, ByteBuffer out) throws Exception;
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.noqms;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pluggable choice among the available instances of a microservice, used by the multicast service finder.
+ * Implementations need a public no argument constructor and must be thread safe - choose() is called on every thread
+ * sending a request, so it should not lock or allocate.
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ * @see com.noqms.finder.multicast.WeightedLoadBalancer
+ * @see com.noqms.finder.multicast.RoundRobinLoadBalancer
+ * @see com.noqms.finder.multicast.RandomLoadBalancer
+ * @see com.noqms.finder.multicast.LeastLoadedLoadBalancer
+ */
+public interface LoadBalancer {
+    /**
+     * @param instances the available instances from index 0 to count - 1, most recently heard from first - read only
+     * @param count     the number of available instances, at least 2
+     * @param sequence  a counter kept with this microservice's instances, for the implementation's use
+     * @return the index of the chosen instance
+     */
+    public int choose(ServiceInfo[] instances, int count, AtomicInteger sequence);
+}
@@ -16,9 +16,13 @@
 
 package com.noqms;
 
+import java.nio.ByteBuffer;
 import java.util.Properties;
+import java.util.concurrent.CompletionStage;
 
 import com.noqms.framework.Harness;
+import com.noqms.framework.ProcessorShard;
+import com.noqms.framework.Util;
 
 /**
  * Extend this class and implement the request/response details of your microservice in processRequest(). Call
@@ -30,7 +34,7 @@ import com.noqms.framework.Harness;
  */
 public class MicroService {
     public static final int MAX_STRING_LENGTH = 100;
-    public static final int MAX_DATA_LENGTH = 64000;
+    public static final int MAX_DATA_LENGTH = 16 * 1024 * 1024; // large messages are fragmented into datagrams
 
     private Harness harness;
 
@@ -75,6 +79,39 @@ public class MicroService {
         harness.getLogger().error("A request was received to an unimplemented processRequest()", null);
     }
 
+    /**
+     * Override this instead of the byte[] form to receive the request data in place, without a copy, when
+     * noqms.receiveMode is channel. The buffer holds the data from its position to its limit and is recycled as soon as
+     * this returns, so do not keep a reference to it. By default the data is copied and passed to the byte[] form.
+     * 
+     * @param requestId       if non null, a response from you is required
+     * @param serviceNameFrom name of the microservice which sent this message
+     * @param data            application and microservice specific message data - null if there is none
+     * @param threadIndex     0-based thread number
+     */
+    public void processRequest(Long requestId, String serviceNameFrom, ByteBuffer data, int threadIndex) {
+        processRequest(requestId, serviceNameFrom, Util.bytesFromBuffer(data), threadIndex);
+    }
+
+    /**
+     * Override this instead of processRequest() to handle a request without holding a thread while waiting on other
+     * microservices, for example by composing ResponseFuture.toCompletableFuture() stages. The framework sends the
+     * response the stage completes with. The thread is released as soon as this returns, while the request still counts
+     * toward noqms.asyncRequests until the stage completes. The data buffer stays valid until then. By default this
+     * calls processRequest() and returns null.
+     * 
+     * @param requestId       if non null, a response from you is required
+     * @param serviceNameFrom name of the microservice which sent this message
+     * @param data            application and microservice specific message data - null if there is none
+     * @param threadIndex     0-based thread number of the thread making this call
+     * @return a stage completing with the response to send, or with null to send none - or null if the request was
+     *         handled before returning
+     */
+    public CompletionStage<ServiceResponse> processRequestAsync(Long requestId, String serviceNameFrom, ByteBuffer data, int threadIndex) {
+        processRequest(requestId, serviceNameFrom, data, threadIndex);
+        return null;
+    }
+
     /**
      * Call this from your processRequest() to respond to a microservice message.
      * 
@@ -85,6 +122,23 @@ public class MicroService {
      * @param data        application and microservice specific message data
      */
     public void sendResponse(Long requestId, Integer code, String userMessage, String nerdDetail, byte[] data) {
+        sendResponse(requestId, code, userMessage, nerdDetail, data, 0);
+    }
+
+    /**
+     * Same as above for a response the requester may reuse for identical requests - same microservice and data - made
+     * within cacheMillis, if it caches responses per its noqms.responseCacheBytes. For responses that depend only on
+     * the request data and may be a little stale.
+     * 
+     * @param requestId   requestId value passed to you by processRequest()
+     * @param code        application defined message status code
+     * @param userMessage application defined user presentable message
+     * @param nerdDetail  application defined technical details
+     * @param data        application and microservice specific message data
+     * @param cacheMillis millis the requester may reuse this response - 0 for none
+     * @since 1.2.0
+     */
+    public void sendResponse(Long requestId, Integer code, String userMessage, String nerdDetail, byte[] data, int cacheMillis) {
         if (requestId == null)
             return; // a response was not requested
         if (requestId <= 0)
@@ -95,7 +149,9 @@ public class MicroService {
             nerdDetail = nerdDetail.substring(0, MAX_STRING_LENGTH);
         if (data != null && data.length > MAX_DATA_LENGTH)
             throw new IllegalArgumentException("Parameter data length must be no greater than " + MAX_DATA_LENGTH);
-        harness.getProcessor().sendResponse(requestId, code, userMessage, nerdDetail, data);
+        if (cacheMillis < 0)
+            throw new IllegalArgumentException("Parameter cacheMillis must be zero or more");
+        harness.getProcessor().sendResponse(requestId, code, userMessage, nerdDetail, data, cacheMillis);
     }
 
     /**
@@ -118,7 +174,8 @@ public class MicroService {
     /**
      * Make a request of a microservice and require a response. Returns immediately. Immediately check the request status of
      * the call with ResponseFuture.getRequestStatus(). Deal with the ResponseFuture in your code later using
-     * ResponseFuture.await() when resolution of the response is desired.
+     * ResponseFuture.await() when resolution of the response is desired, or without blocking through
+     * ResponseFuture.whenComplete() or toCompletableFuture().
      * 
      * @param serviceNameTo name of the destination microservice
      * @param data          application and microservice specific message data
@@ -134,6 +191,91 @@ public class MicroService {
         return harness.getProcessor().sendRequestExpectResponse(serviceNameTo, data);
     }
 
+    /**
+     * Same as sendRequestExpectResponse() for requests that are safe to process twice. If no response has arrived by
+     * the noqms.hedgePercentile of recent response times from the destination microservice, a copy is sent to another
+     * instance of it, within the noqms.hedgeBudgetPercent, and whichever response comes first completes the
+     * ResponseFuture. Trims the slow tail of response times at the cost of a few extra requests.
+     * 
+     * @param serviceNameTo name of the destination microservice
+     * @param data          application and microservice specific message data
+     * @return the immediate status of the request and an await() method to process the data when ready
+     * @since 1.2.0
+     */
+    public ResponseFuture sendRequestExpectResponseHedged(String serviceNameTo, byte[] data) {
+        if (serviceNameTo == null || serviceNameTo.isBlank())
+            throw new IllegalArgumentException("Parameter serviceNameTo is required");
+        if (serviceNameTo.length() > MAX_STRING_LENGTH)
+            throw new IllegalArgumentException("Parameter serviceNameTo length must be no greater than " + MAX_STRING_LENGTH);
+        if (data != null && data.length > MAX_DATA_LENGTH)
+            throw new IllegalArgumentException("Parameter data length must be no greater than " + MAX_DATA_LENGTH);
+        return harness.getProcessor().sendRequestExpectResponse(serviceNameTo, data, ProcessorShard.OPTION_HEDGED);
+    }
+
+    /**
+     * Same as sendRequestExpectResponse() for requests that are safe to process twice. The noqms.timeoutMillis is split
+     * evenly over the first try and up to noqms.retries retries. Each time a share passes without a response, or at
+     * once if the request is rejected or fails to send, it is sent again to another instance of the destination
+     * microservice, within the noqms.retryBudgetPercent and the original timeout. A late response to an earlier try
+     * still completes the ResponseFuture.
+     * 
+     * @param serviceNameTo name of the destination microservice
+     * @param data          application and microservice specific message data
+     * @return the immediate status of the request and an await() method to process the data when ready
+     * @since 1.2.0
+     */
+    public ResponseFuture sendRequestExpectResponseRetried(String serviceNameTo, byte[] data) {
+        if (serviceNameTo == null || serviceNameTo.isBlank())
+            throw new IllegalArgumentException("Parameter serviceNameTo is required");
+        if (serviceNameTo.length() > MAX_STRING_LENGTH)
+            throw new IllegalArgumentException("Parameter serviceNameTo length must be no greater than " + MAX_STRING_LENGTH);
+        if (data != null && data.length > MAX_DATA_LENGTH)
+            throw new IllegalArgumentException("Parameter data length must be no greater than " + MAX_DATA_LENGTH);
+        return harness.getProcessor().sendRequestExpectResponse(serviceNameTo, data, ProcessorShard.OPTION_RETRIED);
+    }
+
+    /**
+     * Same as sendRequestExpectResponse() for requests whose response depends only on their data, such as reads. If an
+     * identical request - same destination microservice and data - is already awaiting a response, this one is not sent
+     * but shares that response, data included, so treat the response data as read only. Saves the duplicate requests of
+     * many callers asking for the same thing at once.
+     * 
+     * @param serviceNameTo name of the destination microservice
+     * @param data          application and microservice specific message data - not to be changed after the call
+     * @return the immediate status of the request and an await() method to process the data when ready
+     * @since 1.2.0
+     */
+    public ResponseFuture sendRequestExpectResponseSingleFlight(String serviceNameTo, byte[] data) {
+        if (serviceNameTo == null || serviceNameTo.isBlank())
+            throw new IllegalArgumentException("Parameter serviceNameTo is required");
+        if (serviceNameTo.length() > MAX_STRING_LENGTH)
+            throw new IllegalArgumentException("Parameter serviceNameTo length must be no greater than " + MAX_STRING_LENGTH);
+        if (data != null && data.length > MAX_DATA_LENGTH)
+            throw new IllegalArgumentException("Parameter data length must be no greater than " + MAX_DATA_LENGTH);
+        return harness.getProcessor().sendRequestExpectResponse(serviceNameTo, data, ProcessorShard.OPTION_SINGLE_FLIGHT);
+    }
+
+    /**
+     * Call this when the response to a request with this data would now differ, so it is no longer answered from the
+     * memo cache - see noqms.memoCacheBytes. Responses already being processed are not memoized.
+     * 
+     * @param data request data, as passed to processRequest()
+     * @since 1.2.0
+     */
+    public void invalidateMemoizedResponse(byte[] data) {
+        harness.getProcessor().invalidateMemoizedResponse(data);
+    }
+
+    /**
+     * Call this when responses in general would now differ, so none are answered from the memo cache - see
+     * noqms.memoCacheBytes. Responses already being processed are not memoized.
+     * 
+     * @since 1.2.0
+     */
+    public void invalidateMemoizedResponses() {
+        harness.getProcessor().invalidateMemoizedResponses();
+    }
+
     /**
      * Drain the microservice prior to destruction. Takes on the order of noqms.serviceUnavailableSeconds to complete.
      * Override this to implement your microservice drain logic, if any, making sure to call this super first.
@@ -17,5 +17,5 @@
 package com.noqms;
 
 public enum RequestStatus {
-    Ok, ServiceNotFound, ServiceNotResponsive
+    Ok, ServiceNotFound, ServiceNotResponsive, ServiceCircuitOpen
 }
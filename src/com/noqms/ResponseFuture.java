@@ -16,21 +16,53 @@
 
 package com.noqms;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Provides immediate request status to check sendRequestExpectResponse() results as well as an await() method to wait
- * for the response when needed in your microservice code.
+ * for the response when needed in your microservice code. To avoid blocking at all, register a callback with
+ * whenComplete() or compose with toCompletableFuture(), allOf() and anyOf(). Callbacks and dependent stages run on the
+ * noqms.callbackThreads executor, never on a framework thread.
  * 
  * @author Stanley Barzee
  * @since 1.0.0
  */
 public class ResponseFuture {
     private final RequestStatus requestStatus;
-    private final AtomicReference<Response> responseAtom = new AtomicReference<>();
+    private final CompletableFuture<Response> completion = new CompletableFuture<>(); // waits without pinning a virtual thread
+    private final Executor callbackExecutor;
+    private final LogListener logger; // null if callback exceptions are not logged
 
     public ResponseFuture(RequestStatus requestStatus) {
+        this(requestStatus, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param callbackExecutor runs callbacks and dependent stages
+     */
+    public ResponseFuture(RequestStatus requestStatus, Executor callbackExecutor) {
+        this(requestStatus, callbackExecutor, null);
+    }
+
+    /**
+     * @param callbackExecutor runs callbacks and dependent stages
+     * @param logger           logs exceptions thrown by whenComplete() callbacks
+     */
+    public ResponseFuture(RequestStatus requestStatus, Executor callbackExecutor, LogListener logger) {
         this.requestStatus = requestStatus;
+        this.callbackExecutor = callbackExecutor;
+        this.logger = logger;
+        if (requestStatus != RequestStatus.Ok)
+            completion.complete(null); // the request was not made
     }
 
     /**
@@ -44,7 +76,7 @@ public class ResponseFuture {
      * @return the response result immediately if present else null
      */
     public Response get() {
-        return responseAtom.get();
+        return completion.getNow(null);
     }
 
     /**
@@ -56,22 +88,119 @@ public class ResponseFuture {
     public Response await() {
         if (requestStatus != RequestStatus.Ok)
             return null;
-        synchronized (responseAtom) {
-            while (responseAtom.get() == null) {
-                try {
-                    responseAtom.wait();
-                } catch (Exception ex) {
-                }
+        return completion.join();
+    }
+
+    /**
+     * Like await() but gives up after the given time.
+     * 
+     * @return the response data from another microservice, or null if the request was not made or the time ran out
+     */
+    public Response await(Duration timeout) {
+        if (requestStatus != RequestStatus.Ok)
+            return null;
+        try {
+            return completion.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Calls the action with the response once it arrives, or with null if the request was not made. An exception the
+     * action throws is logged.
+     * 
+     * @return this
+     */
+    public ResponseFuture whenComplete(Consumer<Response> action) {
+        completion.thenAcceptAsync(response -> {
+            try {
+                action.accept(response);
+            } catch (Throwable th) {
+                if (logger == null)
+                    throw th;
+                logger.error("A ResponseFuture whenComplete() callback threw an exception", th);
             }
-            return responseAtom.get();
+        }, callbackExecutor);
+        return this;
+    }
+
+    /**
+     * @return a new future completing with the response, or with null if the request was not made - it never completes
+     *         exceptionally since a timeout is a response with timedOut set
+     */
+    public CompletableFuture<Response> toCompletableFuture() {
+        return completion.thenApplyAsync(response -> response, callbackExecutor);
+    }
+
+    /**
+     * @return a future completing once all the responses are in, with the responses in the same order - null for a
+     *         request that was not made
+     */
+    public static CompletableFuture<List<Response>> allOf(ResponseFuture... responseFutures) {
+        return allOf(Arrays.asList(responseFutures));
+    }
+
+    /**
+     * @return a future completing once all the responses are in, with the responses in the same order - null for a
+     *         request that was not made
+     */
+    public static CompletableFuture<List<Response>> allOf(Collection<ResponseFuture> responseFutures) {
+        List<ResponseFuture> futures = new ArrayList<>(responseFutures);
+        CompletableFuture<?>[] completions = new CompletableFuture<?>[futures.size()];
+        for (int ix = 0; ix < completions.length; ix++)
+            completions[ix] = futures.get(ix).completion;
+        return CompletableFuture.allOf(completions).thenApplyAsync(ignored -> {
+            List<Response> responses = new ArrayList<>(futures.size());
+            for (ResponseFuture future : futures)
+                responses.add(future.completion.join());
+            return responses;
+        }, executorOf(futures));
+    }
+
+    /**
+     * @return a future completing with the first response in, not counting requests that were not made - with null if
+     *         none were made
+     */
+    public static CompletableFuture<Response> anyOf(ResponseFuture... responseFutures) {
+        return anyOf(Arrays.asList(responseFutures));
+    }
+
+    /**
+     * @return a future completing with the first response in, not counting requests that were not made - with null if
+     *         none were made
+     */
+    public static CompletableFuture<Response> anyOf(Collection<ResponseFuture> responseFutures) {
+        List<ResponseFuture> futures = new ArrayList<>(responseFutures);
+        List<CompletableFuture<Response>> completions = new ArrayList<>();
+        for (ResponseFuture future : futures) {
+            if (future.requestStatus == RequestStatus.Ok)
+                completions.add(future.completion);
         }
+        if (completions.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        return CompletableFuture.anyOf(completions.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(response -> (Response)response, executorOf(futures));
+    }
+
+    private static Executor executorOf(List<ResponseFuture> futures) {
+        return futures.isEmpty() ? ForkJoinPool.commonPool() : futures.get(0).callbackExecutor;
     }
 
     /**
-     * Encapsulates received response data. If timedOut is true, all other data is null and irrelevant.
+     * Encapsulates received response data. If timedOut is true, all other data is null and irrelevant. If rejected is
+     * true, the microservice was too busy to take the request and answered at once without processing it - it can be
+     * retried elsewhere.
+     *
+     * The data may be shared - by the requests joined in a single flight, and by every request answered from the
+     * response cache - so must not be modified.
      */
     public static class Response {
         public final boolean timedOut;
+        public final boolean rejected;
 
         public final String serviceNameFrom;
         public final byte[] data;
@@ -81,7 +210,16 @@ public class ResponseFuture {
 
         public Response(boolean timedOut, String serviceNameFrom, byte[] data, Integer code, String userMessage,
                 String nerdDetail) {
+            this(timedOut, false, serviceNameFrom, data, code, userMessage, nerdDetail);
+        }
+
+        /**
+         * @since 1.2.0
+         */
+        public Response(boolean timedOut, boolean rejected, String serviceNameFrom, byte[] data, Integer code,
+                String userMessage, String nerdDetail) {
             this.timedOut = timedOut;
+            this.rejected = rejected;
             this.serviceNameFrom = serviceNameFrom;
             this.data = data;
             this.code = code;
@@ -94,9 +232,6 @@ public class ResponseFuture {
      * The framework calls this exclusively to set and signal a received response.
      */
     public void set(Response response) {
-        synchronized (responseAtom) {
-            responseAtom.set(response);
-            responseAtom.notifyAll();
-        }
+        completion.complete(response);
     }
 }
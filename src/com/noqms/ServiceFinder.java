@@ -17,7 +17,9 @@
 package com.noqms;
 
 import java.net.InetAddress;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.function.Predicate;
 
 /**
  * Pluggable service finder. The method and means for microservices to find each other may vary from one platform to the
@@ -28,9 +30,13 @@ import java.util.Properties;
  * @see com.noqms.finder.multicast.ServiceFinderMulticast
  */
 public class ServiceFinder {
+    private static final int FIND_OTHER_SERVICE_ATTEMPTS = 4;
+
     protected final String groupName;
     protected final LogListener logger;
     protected final Properties props;
+    protected int serviceUnavailableMillis; // set by configure()
+    protected LoadBalancer loadBalancer; // set by configure()
 
     /**
      * Provide a constructor as shown below.
@@ -44,6 +50,19 @@ public class ServiceFinder {
         this.props = props;
     }
 
+    /**
+     * Called before start() with settings the framework has already parsed and loaded, kept in serviceUnavailableMillis
+     * and loadBalancer for a finder that uses them.
+     * 
+     * @param serviceUnavailableMillis millis after which an instance not heard from is unavailable
+     * @param loadBalancer             the noqms.loadBalancerPath load balancer
+     * @since 1.2.0
+     */
+    public void configure(int serviceUnavailableMillis, LoadBalancer loadBalancer) {
+        this.serviceUnavailableMillis = serviceUnavailableMillis;
+        this.loadBalancer = loadBalancer;
+    }
+
     /**
      * Start the process, if any, involved with service finding.
      */
@@ -68,9 +87,113 @@ public class ServiceFinder {
     public void sendMyServiceInfo(String myServiceName, InetAddress myAddress, int myPort, int myTimeoutMillis) {
     }
 
+    /**
+     * Same as above, also advertising the compressor my microservice can decode. Override this to pass the compression
+     * on so that other microservices compress the data they send me - by default it is dropped.
+     * 
+     * @param myServiceName   provided service name
+     * @param myAddress       provided ip address
+     * @param myPort          provided app data port
+     * @param myTimeoutMillis provided timeoutMillis
+     * @param myCompression   provided compressor name, or null if none
+     */
+    public void sendMyServiceInfo(String myServiceName, InetAddress myAddress, int myPort, int myTimeoutMillis,
+            String myCompression) {
+        sendMyServiceInfo(myServiceName, myAddress, myPort, myTimeoutMillis);
+    }
+
+    /**
+     * Same as above, also advertising the current load of my microservice. Override this to pass the load on so that
+     * other microservices send less to busier instances - by default it is dropped. Called every
+     * noqms.emitterIntervalSeconds and at once when my microservice starts or stops being overloaded.
+     * 
+     * IMPORTANT: the load is how an overloaded microservice pushes back. Unless takesLoad() returns true, my service
+     * info is instead not sent at all while overloaded, so the instance drops out of discovery as before 1.2.0.
+     * 
+     * @param myServiceName   provided service name
+     * @param myAddress       provided ip address
+     * @param myPort          provided app data port
+     * @param myTimeoutMillis provided timeoutMillis
+     * @param myCompression   provided compressor name, or null if none
+     * @param myLoad          provided load - 0 idle, 100 all threads busy, higher as it loads up,
+     *                        ServiceInfo.OVERLOADED_LOAD when overloaded
+     * @since 1.2.0
+     */
+    public void sendMyServiceInfo(String myServiceName, InetAddress myAddress, int myPort, int myTimeoutMillis,
+            String myCompression, int myLoad) {
+        sendMyServiceInfo(myServiceName, myAddress, myPort, myTimeoutMillis, myCompression);
+    }
+
+    /**
+     * Return true only if this finder passes on the load given to sendMyServiceInfo() and never has findService() choose
+     * an instance reporting ServiceInfo.OVERLOADED_LOAD while others are available, whatever the load balancer. My service
+     * info then keeps being sent while my microservice is overloaded, advertising that load.
+     * 
+     * @return true if the finder takes the load, false by default
+     * @since 1.2.0
+     */
+    public boolean takesLoad() {
+        return false;
+    }
+
+    /**
+     * Find another instance of a microservice than the one given, for a hedged request. By default findService() is
+     * asked a few times for a different one - override this if it could keep returning the same.
+     * 
+     * @param serviceNameTo destination microservice
+     * @param serviceTo     service information findService() returned for the request
+     * @return service information of another instance, or null if there is none
+     * @since 1.2.0
+     */
+    public ServiceInfo findOtherService(String serviceNameTo, ServiceInfo serviceTo) {
+        for (int attempt = 0; attempt < FIND_OTHER_SERVICE_ATTEMPTS; attempt++) {
+            ServiceInfo service = findService(serviceNameTo);
+            if (service == null)
+                return null;
+            if (service.port != serviceTo.port || !Objects.equals(service.address, serviceTo.address))
+                return service;
+        }
+        return null;
+    }
+
+    /**
+     * Same as findService() but only choosing among instances the filter allows - used to skip instances whose circuit
+     * breaker is open. By default findService() is asked a few times for one the filter allows - override this if it
+     * could keep returning the same.
+     * 
+     * @param serviceNameTo destination microservice
+     * @param filter        true for instances that may be chosen
+     * @return service information of an allowed instance, or null if there is none
+     * @since 1.2.0
+     */
+    public ServiceInfo findService(String serviceNameTo, Predicate<ServiceInfo> filter) {
+        for (int attempt = 0; attempt < FIND_OTHER_SERVICE_ATTEMPTS; attempt++) {
+            ServiceInfo service = findService(serviceNameTo);
+            if (service == null)
+                return null;
+            if (filter.test(service))
+                return service;
+        }
+        return null;
+    }
+
+    /**
+     * Reports how a request expecting a response, sent to a service returned by findService(), turned out - so the
+     * finder may favor the instances answering quickly and reliably. Called on a framework thread for every such
+     * request, so it must return quickly. By default it is dropped.
+     * 
+     * @param serviceNameTo  destination microservice
+     * @param serviceTo      service information findService() returned for the request
+     * @param roundTripNanos nanos from sending the request until the response, or until giving up if failed
+     * @param failed         true if the request timed out, was rejected or failed to send
+     * @since 1.2.0
+     */
+    public void reportResponse(String serviceNameTo, ServiceInfo serviceTo, long roundTripNanos, boolean failed) {
+    }
+
     /**
      * Find and return the best service option taking into consideration the last time service info was received from
-     * the service. This should be done very quickly - this is called on the microservice thread when a request is sent.
+     * the service and its reported load. This should be done very quickly - this is called on the microservice thread when a request is sent.
      * 
      * @param serviceNameTo desination microservice
      * @return servive information of the chosen microservices
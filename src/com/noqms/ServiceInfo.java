@@ -25,10 +25,20 @@ import java.net.InetAddress;
  * @since 1.0.0
  */
 public class ServiceInfo {
+    /**
+     * The load a microservice reports while applying back pressure, and no other load is as high - a service finder
+     * taking the load should not choose such an instance while others are available.
+     * 
+     * @since 1.2.0
+     */
+    public static final int OVERLOADED_LOAD = 10000;
+
     public final InetAddress address;
     public final int port;
     public final int timeoutMillis;
     public final int elapsedMillis;
+    public final String compression;
+    public final int load;
 
     /**
      * @param address       remote service address
@@ -37,9 +47,37 @@ public class ServiceInfo {
      * @param elapsedMillis millis since the service reported
      */
     public ServiceInfo(InetAddress address, int port, int timeoutMillis, int elapsedMillis) {
+        this(address, port, timeoutMillis, elapsedMillis, null);
+    }
+
+    /**
+     * @param address       remote service address
+     * @param port          remote service port
+     * @param timeoutMillis remote service timeout in millis
+     * @param elapsedMillis millis since the service reported
+     * @param compression   name of the compressor the remote service can decode, or null if none
+     */
+    public ServiceInfo(InetAddress address, int port, int timeoutMillis, int elapsedMillis, String compression) {
+        this(address, port, timeoutMillis, elapsedMillis, compression, 0);
+    }
+
+    /**
+     * @param address       remote service address
+     * @param port          remote service port
+     * @param timeoutMillis remote service timeout in millis
+     * @param elapsedMillis millis since the service reported
+     * @param compression   name of the compressor the remote service can decode, or null if none
+     * @param load          load the remote service reported - 0 idle, 100 all threads busy, higher as it loads up,
+     *                      OVERLOADED_LOAD when applying back pressure
+     * @since 1.2.0
+     */
+    public ServiceInfo(InetAddress address, int port, int timeoutMillis, int elapsedMillis, String compression,
+            int load) {
         this.address = address;
         this.port = port;
         this.timeoutMillis = timeoutMillis;
         this.elapsedMillis = elapsedMillis;
+        this.compression = compression;
+        this.load = load;
     }
 }
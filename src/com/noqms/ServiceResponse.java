@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms;
+
+/**
+ * A response from your microservice, completed by the stage returned from MicroService.processRequestAsync(). The
+ * fields are those of MicroService.sendResponse().
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class ServiceResponse {
+    public final Integer code;
+    public final String userMessage;
+    public final String nerdDetail;
+    public final byte[] data;
+    public final int cacheMillis;
+
+    /**
+     * @param code        application defined message status code
+     * @param userMessage application defined user presentable message
+     * @param nerdDetail  application defined technical details
+     * @param data        application and microservice specific message data
+     */
+    public ServiceResponse(Integer code, String userMessage, String nerdDetail, byte[] data) {
+        this(code, userMessage, nerdDetail, data, 0);
+    }
+
+    /**
+     * @param code        application defined message status code
+     * @param userMessage application defined user presentable message
+     * @param nerdDetail  application defined technical details
+     * @param data        application and microservice specific message data
+     * @param cacheMillis millis the requester may reuse this response for identical requests - 0 for none
+     */
+    public ServiceResponse(Integer code, String userMessage, String nerdDetail, byte[] data, int cacheMillis) {
+        this.code = code;
+        this.userMessage = userMessage;
+        this.nerdDetail = nerdDetail;
+        this.data = data;
+        this.cacheMillis = cacheMillis;
+    }
+}
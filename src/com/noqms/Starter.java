@@ -38,6 +38,33 @@ public class Starter {
     public static final String PROP_SERVICE_UNAVAILABLE_SECONDS = "noqms.serviceUnavailableSeconds";
     public static final String PROP_SERVICE_FINDER_PATH = "noqms.serviceFinderPath";
     public static final String PROP_DATA_PORT = "noqms.dataPort";
+    public static final String PROP_WIRE_FORMAT = "noqms.wireFormat";
+    public static final String PROP_RECEIVE_MODE = "noqms.receiveMode";
+    public static final String PROP_RECEIVE_THREADS = "noqms.receiveThreads";
+    public static final String PROP_RECEIVE_BUFFERS = "noqms.receiveBuffers";
+    public static final String PROP_DIRECT_BUFFERS = "noqms.directBuffers";
+    public static final String PROP_FRAGMENT_BYTES = "noqms.fragmentBytes";
+    public static final String PROP_REASSEMBLY_BYTES = "noqms.reassemblyBytes";
+    public static final String PROP_REASSEMBLY_TIMEOUT_MILLIS = "noqms.reassemblyTimeoutMillis";
+    public static final String PROP_COMPRESSION_THRESHOLD_BYTES = "noqms.compressionThresholdBytes";
+    public static final String PROP_COMPRESSOR_PATH = "noqms.compressorPath";
+    public static final String PROP_COALESCE_BYTES = "noqms.coalesceBytes";
+    public static final String PROP_COALESCE_LINGER_MICROS = "noqms.coalesceLingerMicros";
+    public static final String PROP_PROCESSOR_THREADS = "noqms.processorThreads";
+    public static final String PROP_VIRTUAL_THREADS = "noqms.virtualThreads";
+    public static final String PROP_CALLBACK_THREADS = "noqms.callbackThreads";
+    public static final String PROP_ASYNC_REQUESTS = "noqms.asyncRequests";
+    public static final String PROP_MAX_BACKLOG = "noqms.maxBacklog";
+    public static final String PROP_LOAD_BALANCER_PATH = "noqms.loadBalancerPath";
+    public static final String PROP_HEDGE_PERCENTILE = "noqms.hedgePercentile";
+    public static final String PROP_HEDGE_BUDGET_PERCENT = "noqms.hedgeBudgetPercent";
+    public static final String PROP_RETRIES = "noqms.retries";
+    public static final String PROP_RETRY_BUDGET_PERCENT = "noqms.retryBudgetPercent";
+    public static final String PROP_BREAKER_FAILURES = "noqms.breakerFailures";
+    public static final String PROP_BREAKER_COOLDOWN_MILLIS = "noqms.breakerCooldownMillis";
+    public static final String PROP_RESPONSE_CACHE_BYTES = "noqms.responseCacheBytes";
+    public static final String PROP_MEMO_CACHE_BYTES = "noqms.memoCacheBytes";
+    public static final String PROP_MEMO_MILLIS = "noqms.memoMillis";
 
     /**
      * Start the microservice at noqms.servicePath and with the following specified property key/value pairs.
@@ -59,7 +86,8 @@ public class Starter {
      *                                        failed for whatever reason - can be 0 if not receiving requests
      * 
      * @param noqms.maxMessageOutBytes        max bytes for outgoing messages from your microservice, including both
-     *                                        requests and responses from you
+     *                                        requests and responses from you - messages above noqms.fragmentBytes are
+     *                                        fragmented, so this may exceed the 64K datagram limit
      * 
      * @param noqms.maxMessageInBytes         max bytes for incoming messages to your microservice, including both
      *                                        requests and responses to you
@@ -77,6 +105,117 @@ public class Starter {
      * 
      * @param noqms.dataPort                  default=any available - UDP port this service reads for incoming
      *                                        microservice application data
+     * 
+     * @param noqms.wireFormat                default=json - message header format sent by this service - json or
+     *                                        binary - both are always accepted - switch to binary only once every
+     *                                        microservice in the group runs a version that accepts it
+     * 
+     * @param noqms.receiveMode               default=socket - socket or channel - channel receives through an nio
+     *                                        DatagramChannel into pooled buffers which are handed to your
+     *                                        microservice in place and recycled after processRequest() returns
+     * 
+     * @param noqms.receiveThreads            default=1 - number of threads receiving and decoding incoming messages -
+     *                                        each binds its own socket to noqms.dataPort with SO_REUSEPORT where
+     *                                        supported, else they share one socket
+     * 
+     * @param noqms.receiveBuffers            default=100 plus noqms.threads - size of each receive thread's buffer
+     *                                        pool in channel mode - should cover requests queued and in progress -
+     *                                        each buffer takes the largest datagram, 64KB
+     * 
+     * @param noqms.directBuffers             default=false - whether the channel mode receive buffers are direct
+     * 
+     * @param noqms.fragmentBytes             default=1400 - largest datagram sent - larger messages are split into
+     *                                        fragments of this size and reassembled by the receiver - applies to the
+     *                                        binary wire format only
+     * 
+     * @param noqms.reassemblyBytes           default=4 times noqms.maxMessageInBytes - max bytes held by incoming
+     *                                        messages waiting on more fragments - fragments beyond that are dropped
+     * 
+     * @param noqms.reassemblyTimeoutMillis   default=2000 - time after which a message still missing fragments is
+     *                                        dropped
+     * 
+     * @param noqms.compressionThresholdBytes default=0 - if positive, message data of at least this many bytes is
+     *                                        compressed when sent to microservices advertising the same compressor,
+     *                                        and this microservice advertises that it can decode compressed data -
+     *                                        applies to the binary wire format only
+     * 
+     * @param noqms.compressorPath            default="com.noqms.framework.DeflateCompressor" - the full path of a
+     *                                        pluggable com.noqms.Compressor - can be anywhere on your classpath
+     * 
+     * @param noqms.coalesceBytes             default=0 - if positive, small messages to the same destination are
+     *                                        packed into datagrams of up to this many bytes - the receiver splits them
+     *                                        back out - no more than noqms.fragmentBytes - applies to the binary wire
+     *                                        format only
+     * 
+     * @param noqms.coalesceLingerMicros      default=0 - how long a partly filled datagram of coalesced messages may
+     *                                        wait for more - 0 sends what was gathered in each pass of the processor
+     * 
+     * @param noqms.processorThreads          default=1 - number of threads routing messages, each owning its share
+     *                                        of the requests in flight - raise on busy services where the one
+     *                                        processor thread is the bottleneck
+     * 
+     * @param noqms.virtualThreads            default=false - if true, each request to your microservice runs on its
+     *                                        own virtual thread, with noqms.threads as the limit on requests running
+     *                                        at once - blocking in ResponseFuture.await() then costs little, so the
+     *                                        limit can be in the thousands - needs Java 21, else platform threads are
+     *                                        started per request instead
+     * 
+     * @param noqms.callbackThreads           default=2 - number of threads running ResponseFuture callbacks and
+     *                                        dependent CompletableFuture stages - keep callbacks short or hand longer
+     *                                        work to your own executor
+     * 
+     * @param noqms.asyncRequests             default=10 times noqms.threads - number of requests whose
+     *                                        processRequestAsync() stage may be incomplete at once before back
+     *                                        pressure is applied
+     * 
+     * @param noqms.maxBacklog                default=0 - if positive, requests to your microservice arriving while
+     *                                        this many already wait for a thread are answered at once with a
+     *                                        rejected response instead of queueing - callers learn in microseconds
+     *                                        rather than after a timeout and can retry elsewhere
+     * 
+     * @param noqms.loadBalancerPath          default="com.noqms.finder.multicast.WeightedLoadBalancer" - the full
+     *                                        path of the LoadBalancer the multicast service finder uses to choose
+     *                                        among the instances of a microservice - also provided are
+     *                                        RoundRobinLoadBalancer, RandomLoadBalancer and LeastLoadedLoadBalancer
+     *                                        in the same package
+     * 
+     * @param noqms.hedgePercentile           default=95 - a request made with sendRequestExpectResponseHedged() that
+     *                                        is unanswered after this percentile of recent response times from its
+     *                                        microservice is copied to another instance
+     * 
+     * @param noqms.hedgeBudgetPercent        default=10 - copies sent by hedged requests, as a percent of hedged
+     *                                        requests - the limit holds over time, with bursts of up to 10 allowed
+     * 
+     * @param noqms.retries                   default=1 max=10 - times a request made with
+     *                                        sendRequestExpectResponseRetried() may be sent again to another
+     *                                        instance, each after an equal share of the timeout goes unanswered
+     * 
+     * @param noqms.retryBudgetPercent        default=10 - retries sent to a microservice, as a percent of retried
+     *                                        requests to it - the limit holds over time, with bursts of up to 10
+     *                                        allowed
+     * 
+     * @param noqms.breakerFailures           default=5 - consecutive timed out, unsent or rejected requests to an
+     *                                        instance of a microservice after which it is skipped for
+     *                                        noqms.breakerCooldownMillis - 0 to never skip
+     * 
+     * @param noqms.breakerCooldownMillis     default=5000 - how long an instance is skipped before a single request
+     *                                        probes it - if answered the instance is used again, if not it is skipped
+     *                                        for another cooldown
+     * 
+     * @param noqms.responseCacheBytes        default=0 - memory bound of the cache of responses other microservices
+     *                                        mark cacheable with sendResponse() cacheMillis, so identical requests
+     *                                        within that time are answered without being sent - they share the
+     *                                        cached response data, so treat it as read only - 0 to not cache
+     * 
+     * @param noqms.memoCacheBytes            default=0 - memory bound of the cache of my microservice's responses by
+     *                                        request data, so an identical request from any microservice within
+     *                                        noqms.memoMillis is answered without calling processRequest() - only
+     *                                        successful responses, with no code or code 0, are memoized - only for
+     *                                        microservices whose responses depend on nothing but the request data,
+     *                                        or that call invalidateMemoizedResponses() when that changes - 0 to not
+     *                                        memoize
+     * 
+     * @param noqms.memoMillis                default=1000 - how long a response stays in the memo cache
      */
 
     /**
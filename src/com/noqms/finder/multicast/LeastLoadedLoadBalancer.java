@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.noqms.finder.multicast;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.noqms.LoadBalancer;
+import com.noqms.ServiceInfo;
+
+/**
+ * Power of two choices - picks two different available instances at random and takes the less loaded. Nearly as good
+ * as always taking the least loaded, without every caller piling onto the same instance between load reports.
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class LeastLoadedLoadBalancer implements LoadBalancer {
+    @Override
+    public int choose(ServiceInfo[] instances, int count, AtomicInteger sequence) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        int second = (first + 1 + random.nextInt(count - 1)) % count;
+        return instances[second].load < instances[first].load ? second : first;
+    }
+}
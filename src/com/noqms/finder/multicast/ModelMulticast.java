@@ -39,4 +39,8 @@ public class ModelMulticast {
     public int port;
     @SerializedName(value = "t")
     public int timeoutMillis;
+    @SerializedName(value = "z")
+    public String compression;
+    @SerializedName(value = "l")
+    public int load;
 }
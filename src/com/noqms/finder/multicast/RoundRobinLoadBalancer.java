@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.noqms.finder.multicast;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.noqms.LoadBalancer;
+import com.noqms.ServiceInfo;
+
+/**
+ * Takes the available instances in turn, regardless of load.
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+    @Override
+    public int choose(ServiceInfo[] instances, int count, AtomicInteger sequence) {
+        return Math.floorMod(sequence.getAndIncrement(), count);
+    }
+}
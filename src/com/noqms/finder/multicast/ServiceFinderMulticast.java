@@ -20,10 +20,15 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 import com.noqms.LogListener;
 import com.noqms.ServiceFinder;
@@ -31,6 +36,17 @@ import com.noqms.ServiceInfo;
 import com.noqms.framework.Util;
 
 /**
+ * Every instance of a microservice is kept and expires on its own once not heard from in serviceUnavailableMillis.
+ * findService() has the pluggable noqms.loadBalancerPath choose among the available ones. The instances of each
+ * microservice are an array replaced whole by the read thread, so a lookup takes no lock and, once its thread has
+ * looked up as many instances before, allocates nothing. Instances reporting ServiceInfo.OVERLOADED_LOAD are never
+ * chosen while others are available, so back pressure holds whatever the load balancer.
+ *
+ * The round trips and failures reported for each instance are kept as decaying averages. Before the load balancer
+ * chooses, instances much slower or failing much more often than the best are set aside. Once an instance has gone
+ * unreported for OBSERVED_EXPIRY_MILLIS it is trusted again, so a slow instance is retried now and then and one that
+ * recovered wins its traffic back.
+ *
  * @author Stanley Barzee
  * @since 1.1.0
  */
@@ -39,10 +55,19 @@ public class ServiceFinderMulticast extends ServiceFinder {
     private static final int MULTICAST_PORT_START = 1890;
     private static final int MULTICAST_PORT_SPAN = 100; // 1890 to 1989
     private static final int UDP_BUFFER_CAPACITY_MESSAGES = 100;
+    private static final int OBSERVED_EXPIRY_MILLIS = 10000;
+    private static final int AVERAGE_WEIGHT = 8; // each report moves an average an eighth of the way
+    private static final long FAILURE_ONE = 1 << 16; // fixed point failure rate of 100%
+    private static final int SLOWER_FACTOR = 2; // set aside if slower than this times the fastest...
+    private static final long SLOWER_SLACK_NANOS = 1000000; // ...plus this, so tiny differences do not count
+    private static final int FAILURE_SLACK_DIVISOR = 4; // set aside if failing a quarter more often than the best...
+    private static final long FAILURE_SLACK = FAILURE_ONE / 100; // ...or 1 point more, whichever is higher
 
     private final MulticastSocket multicastSocket;
     private final byte[] receiveData;
-    private final Map<String, ServiceInstance> serviceNameToService = new ConcurrentHashMap<>();
+    private final Map<String, ServiceInstances> serviceNameToInstances = new ConcurrentHashMap<>();
+    private final ThreadLocal<ServiceInstance[]> availableInstances = ThreadLocal.withInitial(() -> new ServiceInstance[0]);
+    private final ThreadLocal<ServiceInfo[]> preferredInstances = ThreadLocal.withInitial(() -> new ServiceInfo[0]);
     private final InetAddress multicastAddress;
     private final int multicastPort;
     private final AtomicBoolean die = new AtomicBoolean();
@@ -108,20 +133,59 @@ public class ServiceFinderMulticast extends ServiceFinder {
                 if (!message.groupName.equals(groupName))
                     continue;
 
-                ServiceInstance service = new ServiceInstance(message.address, message.port, message.timeoutMillis, System.currentTimeMillis());
-                serviceNameToService.put(message.serviceName, service);
+                addInstance(message.serviceName, message, System.currentTimeMillis());
             }
         }
     }
 
+    // Only the read thread adds, replacing the instance with the same address and port and dropping those gone quiet.
+    private void addInstance(String serviceName, ModelMulticast message, long currentTimeMillis) {
+        ServiceInstances current = serviceNameToInstances.get(serviceName);
+        if (current == null) {
+            ServiceInstance service = new ServiceInstance(message, new ObservedStats(), currentTimeMillis);
+            serviceNameToInstances.put(serviceName, new ServiceInstances(new ServiceInstance[] { service }, new AtomicInteger()));
+            return;
+        }
+        ServiceInstance[] instances = current.instances;
+        ObservedStats observed = null;
+        for (ServiceInstance instance : instances) {
+            if (instance.isAt(message.address, message.port))
+                observed = instance.observed;
+        }
+        ServiceInstance service = new ServiceInstance(message, observed == null ? new ObservedStats() : observed, currentTimeMillis);
+        ServiceInstance[] newInstances = new ServiceInstance[instances.length + 1];
+        int count = 0;
+        newInstances[count++] = service;
+        for (ServiceInstance instance : instances) {
+            if (instance.isAt(service.address, service.port))
+                continue;
+            if (service.lastTimeMillis - instance.lastTimeMillis > serviceUnavailableMillis)
+                continue;
+            newInstances[count++] = instance;
+        }
+        serviceNameToInstances.put(serviceName, new ServiceInstances(count == newInstances.length ? newInstances : Arrays.copyOf(newInstances, count), current.sequence));
+    }
+
     @Override
     public void sendMyServiceInfo(String myServiceName, InetAddress myAddress, int port, int myTimeoutMillis) {
+        sendMyServiceInfo(myServiceName, myAddress, port, myTimeoutMillis, null);
+    }
+
+    @Override
+    public void sendMyServiceInfo(String myServiceName, InetAddress myAddress, int port, int myTimeoutMillis, String myCompression) {
+        sendMyServiceInfo(myServiceName, myAddress, port, myTimeoutMillis, myCompression, 0);
+    }
+
+    @Override
+    public void sendMyServiceInfo(String myServiceName, InetAddress myAddress, int port, int myTimeoutMillis, String myCompression, int myLoad) {
         ModelMulticast message = new ModelMulticast();
         message.groupName = groupName;
         message.serviceName = myServiceName;
         message.address = myAddress;
         message.port = port;
         message.timeoutMillis = myTimeoutMillis;
+        message.compression = myCompression;
+        message.load = myLoad;
 
         byte[] data = Util.jsonBytesFromObject(message);
         int dataLength = data.length;
@@ -138,25 +202,179 @@ public class ServiceFinderMulticast extends ServiceFinder {
         }
     }
 
+    @Override
+    public boolean takesLoad() {
+        return true;
+    }
+
     @Override
     public ServiceInfo findService(String serviceNameTo) {
-        ServiceInstance service = serviceNameToService.get(serviceNameTo);
+        return find(serviceNameTo, null, null);
+    }
+
+    @Override
+    public ServiceInfo findOtherService(String serviceNameTo, ServiceInfo serviceTo) {
+        return find(serviceNameTo, serviceTo, null);
+    }
+
+    @Override
+    public ServiceInfo findService(String serviceNameTo, Predicate<ServiceInfo> filter) {
+        return find(serviceNameTo, null, filter);
+    }
+
+    private ServiceInfo find(String serviceNameTo, ServiceInfo exclude, Predicate<ServiceInfo> filter) {
+        ServiceInstances service = serviceNameToInstances.get(serviceNameTo);
         if (service == null)
             return null;
-        return new ServiceInfo(service.address, service.port, service.timeoutMillis, (int)(System.currentTimeMillis() - service.lastTimeMillis));
+        ServiceInstance[] instances = service.instances;
+        long currentTimeMillis = System.currentTimeMillis();
+        ServiceInstance[] available = availableInstances.get();
+        ServiceInfo[] preferred = preferredInstances.get();
+        if (available.length < instances.length) {
+            available = new ServiceInstance[instances.length];
+            availableInstances.set(available);
+            preferred = new ServiceInfo[instances.length];
+            preferredInstances.set(preferred);
+        }
+
+        int availableCount = 0;
+        int overloadedCount = 0;
+        long fastestNanos = Long.MAX_VALUE;
+        long fewestFailures = Long.MAX_VALUE;
+        for (ServiceInstance instance : instances) {
+            if (currentTimeMillis - instance.lastTimeMillis > serviceUnavailableMillis)
+                continue;
+            if (exclude != null && instance.isAt(exclude.address, exclude.port))
+                continue;
+            if (filter != null && !filter.test(instance.serviceInfo))
+                continue;
+            available[availableCount++] = instance;
+            if (instance.serviceInfo.load >= ServiceInfo.OVERLOADED_LOAD) {
+                overloadedCount++;
+                continue;
+            }
+            ObservedStats observed = instance.observed;
+            if (observed.isCurrent(currentTimeMillis)) {
+                long roundTripNanos = observed.roundTripNanos.get();
+                if (roundTripNanos > 0)
+                    fastestNanos = Math.min(fastestNanos, roundTripNanos);
+                fewestFailures = Math.min(fewestFailures, observed.failures.get());
+            }
+        }
+        if (availableCount == 0) {
+            if (exclude != null || filter != null)
+                return null;
+            // the most recently heard from, aged, so the caller sees the service is unavailable
+            ServiceInstance instance = instances[0];
+            return new ServiceInfo(instance.serviceInfo.address, instance.serviceInfo.port, instance.serviceInfo.timeoutMillis,
+                    (int)(currentTimeMillis - instance.lastTimeMillis), instance.serviceInfo.compression, instance.serviceInfo.load);
+        }
+
+        boolean skipOverloaded = overloadedCount < availableCount;
+        int count = 0;
+        for (int ix = 0; ix < availableCount; ix++) {
+            if (skipOverloaded && available[ix].serviceInfo.load >= ServiceInfo.OVERLOADED_LOAD)
+                continue;
+            ObservedStats observed = available[ix].observed;
+            if (observed.isCurrent(currentTimeMillis)) {
+                long roundTripNanos = observed.roundTripNanos.get();
+                if (fastestNanos != Long.MAX_VALUE && roundTripNanos > SLOWER_FACTOR * fastestNanos + SLOWER_SLACK_NANOS)
+                    continue;
+                if (observed.failures.get() > fewestFailures + Math.max(fewestFailures / FAILURE_SLACK_DIVISOR, FAILURE_SLACK))
+                    continue;
+            }
+            preferred[count++] = available[ix].serviceInfo;
+        }
+        if (count == 0) {
+            // the fastest fail too often and the reliable are too slow, so leave it to the load balancer
+            for (int ix = 0; ix < availableCount; ix++) {
+                if (!skipOverloaded || available[ix].serviceInfo.load < ServiceInfo.OVERLOADED_LOAD)
+                    preferred[count++] = available[ix].serviceInfo;
+            }
+        }
+        Arrays.fill(available, 0, availableCount, null);
+
+        int chosen = 0;
+        if (count > 1) {
+            try {
+                chosen = loadBalancer.choose(preferred, count, service.sequence);
+            } catch (Throwable th) {
+                logger.error("Pluggable load balancer threw an exception in choose()", th);
+            }
+            if (chosen < 0 || chosen >= count) {
+                logger.error("Pluggable load balancer chose an instance out of range: " + chosen + " of " + count, null);
+                chosen = 0;
+            }
+        }
+        ServiceInfo serviceInfo = preferred[chosen];
+        Arrays.fill(preferred, 0, count, null);
+        return serviceInfo;
+    }
+
+    @Override
+    public void reportResponse(String serviceNameTo, ServiceInfo serviceTo, long roundTripNanos, boolean failed) {
+        ServiceInstances service = serviceNameToInstances.get(serviceNameTo);
+        if (service == null || serviceTo == null)
+            return;
+        for (ServiceInstance instance : service.instances) {
+            if (instance.serviceInfo == serviceTo || instance.isAt(serviceTo.address, serviceTo.port)) {
+                instance.observed.report(roundTripNanos, failed);
+                return;
+            }
+        }
+    }
+
+    // The instances of one microservice, most recently heard from first, with the load balancer's counter.
+    private class ServiceInstances {
+        public final ServiceInstance[] instances;
+        public final AtomicInteger sequence;
+
+        public ServiceInstances(ServiceInstance[] instances, AtomicInteger sequence) {
+            this.instances = instances;
+            this.sequence = sequence;
+        }
     }
 
+    // The service info is made once on receipt and handed out while the instance is available, so its elapsedMillis
+    // stays 0. The observed stats carry over from the instance it replaces.
     private class ServiceInstance {
         public final InetAddress address;
         public final int port;
-        public final int timeoutMillis;
+        public final ServiceInfo serviceInfo;
+        public final ObservedStats observed;
         public final long lastTimeMillis;
 
-        public ServiceInstance(InetAddress address, int port, int timeoutMillis, long lastTimeMillis) {
-            this.address = address;
-            this.port = port;
-            this.timeoutMillis = timeoutMillis;
+        public ServiceInstance(ModelMulticast message, ObservedStats observed, long lastTimeMillis) {
+            this.address = message.address;
+            this.port = message.port;
+            this.serviceInfo = new ServiceInfo(message.address, message.port, message.timeoutMillis, 0, message.compression, Math.max(0, message.load));
+            this.observed = observed;
             this.lastTimeMillis = lastTimeMillis;
         }
+
+        public boolean isAt(InetAddress address, int port) {
+            return this.port == port && Objects.equals(this.address, address);
+        }
+    }
+
+    // Decaying averages of the round trips and failures reported for one instance.
+    private class ObservedStats {
+        public final AtomicLong roundTripNanos = new AtomicLong(); // of responses only, 0 until the first
+        public final AtomicLong failures = new AtomicLong(); // fixed point rate, see FAILURE_ONE
+        public volatile long lastReportMillis;
+
+        public void report(long nanos, boolean failed) {
+            if (!failed) {
+                long sample = Math.max(1, nanos);
+                roundTripNanos.getAndUpdate(average -> average == 0 ? sample : average + (sample - average) / AVERAGE_WEIGHT);
+            }
+            long failureSample = failed ? FAILURE_ONE : 0;
+            failures.getAndUpdate(average -> average + (failureSample - average) / AVERAGE_WEIGHT);
+            lastReportMillis = System.currentTimeMillis();
+        }
+
+        public boolean isCurrent(long currentTimeMillis) {
+            return currentTimeMillis - lastReportMillis <= OBSERVED_EXPIRY_MILLIS;
+        }
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.noqms.finder.multicast;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.noqms.LoadBalancer;
+import com.noqms.ServiceInfo;
+
+/**
+ * The default - picks an available instance at random weighted by 1/(100 + load), so an idle instance gets twice the
+ * share of one with every thread busy and traffic shifts smoothly away from instances as they load up.
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class WeightedLoadBalancer implements LoadBalancer {
+    private static final long WEIGHT_SCALE = 1000000;
+
+    @Override
+    public int choose(ServiceInfo[] instances, int count, AtomicInteger sequence) {
+        long totalWeight = 0;
+        for (int ix = 0; ix < count; ix++)
+            totalWeight += weight(instances[ix]);
+        long pick = ThreadLocalRandom.current().nextLong(totalWeight);
+        for (int ix = 0; ix < count - 1; ix++) {
+            pick -= weight(instances[ix]);
+            if (pick < 0)
+                return ix;
+        }
+        return count - 1;
+    }
+
+    private static long weight(ServiceInfo instance) {
+        return WEIGHT_SCALE / (100 + Math.max(0, instance.load));
+    }
+}
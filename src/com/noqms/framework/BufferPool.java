@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed capacity pool of equally sized receive buffers. A buffer is acquired by the receive thread and released by
+ * whichever thread is last to touch the message data. When the pool runs dry a new buffer is allocated rather than
+ * waiting, and the pool keeps it on release if there is room.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+    private final int bufferCapacity;
+    private final boolean direct;
+    private final AtomicInteger exhausted = new AtomicInteger();
+
+    public BufferPool(int buffers, int bufferCapacity, boolean direct) {
+        this.buffers = new ArrayBlockingQueue<>(buffers);
+        this.bufferCapacity = bufferCapacity;
+        this.direct = direct;
+        for (int ix = 0; ix < buffers; ix++)
+            this.buffers.add(allocate());
+    }
+
+    /**
+     * @return a cleared buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            exhausted.incrementAndGet();
+            buffer = allocate();
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return the number of times a buffer had to be allocated since the last call
+     */
+    public int getAndResetExhausted() {
+        return exhausted.getAndSet(0);
+    }
+
+    private ByteBuffer allocate() {
+        return direct ? ByteBuffer.allocateDirect(bufferCapacity) : ByteBuffer.allocate(bufferCapacity);
+    }
+}
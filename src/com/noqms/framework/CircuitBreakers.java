@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.noqms.ServiceInfo;
+
+/**
+ * A circuit breaker per destination instance, by address and port. An instance whose requests time out, fail to send
+ * or are rejected noqms.breakerFailures times in a row is open - skipped - for noqms.breakerCooldownMillis. Then it is
+ * half open and a single probe request is let through, which closes it if answered or opens it again if not.
+ *
+ * Only instances with recent failures have a breaker, so with none the check is a map size test. A breaker untouched
+ * for a few cooldowns, such as that of an instance gone away, is dropped.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class CircuitBreakers {
+    public static final int DENIED = 0;
+    public static final int ALLOWED = 1;
+    public static final int PROBE = 2; // allowed as the single half open probe, so the request must be sent
+
+    private static final int STALE_COOLDOWNS = 4;
+
+    private final int failuresToOpen;
+    private final long cooldownNanos;
+    private final Map<InetSocketAddress, Breaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicInteger breakersOpened = new AtomicInteger();
+    private final AtomicInteger probesSent = new AtomicInteger();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
+    public CircuitBreakers(int failuresToOpen, int cooldownMillis) {
+        this.failuresToOpen = failuresToOpen;
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+    }
+
+    /**
+     * @return true if a request may be sent to the instance, without claiming a half open probe - for choosing
+     */
+    public boolean isAllowed(ServiceInfo serviceTo) {
+        if (breakers.isEmpty())
+            return true;
+        Breaker breaker = breakers.get(new InetSocketAddress(serviceTo.address, serviceTo.port));
+        return breaker == null || breaker.isAllowed(System.nanoTime());
+    }
+
+    /**
+     * Call only when the request will be sent, as a claimed probe is cleared only by record().
+     *
+     * @return ALLOWED, PROBE if allowed as the half open probe, or DENIED
+     */
+    public int tryAcquire(ServiceInfo serviceTo) {
+        if (breakers.isEmpty())
+            return ALLOWED;
+        Breaker breaker = breakers.get(new InetSocketAddress(serviceTo.address, serviceTo.port));
+        return breaker == null ? ALLOWED : breaker.tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Records how a request to the instance turned out. Only a real response closes the breaker - a rejection counts as
+     * a failure, as an instance rejecting everything is of no more use than one not answering.
+     */
+    public void record(ServiceInfo serviceTo, boolean failed) {
+        if (failuresToOpen == 0 || serviceTo == null)
+            return;
+        if (!failed && breakers.isEmpty())
+            return;
+        long currentTimeNanos = System.nanoTime();
+        sweep(currentTimeNanos);
+        InetSocketAddress address = new InetSocketAddress(serviceTo.address, serviceTo.port);
+        if (!failed) {
+            breakers.remove(address); // closed
+            return;
+        }
+        Breaker breaker = breakers.computeIfAbsent(address, key -> new Breaker());
+        if (breaker.failed(currentTimeNanos))
+            breakersOpened.incrementAndGet();
+    }
+
+    // Drops the breakers untouched for STALE_COOLDOWNS cooldowns, at most once a cooldown.
+    private void sweep(long currentTimeNanos) {
+        long lastNanos = lastSweepNanos.get();
+        if (currentTimeNanos - lastNanos < cooldownNanos || !lastSweepNanos.compareAndSet(lastNanos, currentTimeNanos))
+            return;
+        Iterator<Breaker> iterator = breakers.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isStale(currentTimeNanos))
+                iterator.remove();
+        }
+    }
+
+    public BreakerStats getAndResetStats() {
+        int open = 0;
+        long currentTimeNanos = System.nanoTime();
+        for (Breaker breaker : breakers.values()) {
+            if (!breaker.isAllowed(currentTimeNanos))
+                open++;
+        }
+        return new BreakerStats(breakersOpened.getAndSet(0), probesSent.getAndSet(0), open);
+    }
+
+    /**
+     * Circuit breaker counters reported in the per minute stats.
+     */
+    public static class BreakerStats {
+        public final int breakersOpened;
+        public final int probesSent;
+        public final int breakersCurrentOpen;
+
+        BreakerStats(int breakersOpened, int probesSent, int breakersCurrentOpen) {
+            this.breakersOpened = breakersOpened;
+            this.probesSent = probesSent;
+            this.breakersCurrentOpen = breakersCurrentOpen;
+        }
+    }
+
+    private class Breaker {
+        private int consecutiveFailures;
+        private boolean open;
+        private long openedNanos;
+        private boolean probing; // the half open probe is in flight
+        private long touchedNanos = System.nanoTime(); // last failure or probe
+
+        private synchronized boolean isAllowed(long currentTimeNanos) {
+            return !open || (!probing && currentTimeNanos - openedNanos >= cooldownNanos);
+        }
+
+        private synchronized int tryAcquire(long currentTimeNanos) {
+            if (!open)
+                return ALLOWED;
+            if (probing || currentTimeNanos - openedNanos < cooldownNanos)
+                return DENIED;
+            probing = true;
+            touchedNanos = currentTimeNanos;
+            probesSent.incrementAndGet();
+            return PROBE;
+        }
+
+        // A probe in flight is cleared by its outcome, so only a breaker with none may be stale.
+        private synchronized boolean isStale(long currentTimeNanos) {
+            return !probing && currentTimeNanos - touchedNanos >= STALE_COOLDOWNS * cooldownNanos;
+        }
+
+        // true if the breaker just opened
+        private synchronized boolean failed(long currentTimeNanos) {
+            touchedNanos = currentTimeNanos;
+            if (open) {
+                if (probing) {
+                    // the probe, or a request sent before opening, failed - wait out another cooldown
+                    probing = false;
+                    openedNanos = currentTimeNanos;
+                }
+                return false;
+            }
+            if (++consecutiveFailures < failuresToOpen)
+                return false;
+            open = true;
+            openedNanos = currentTimeNanos;
+            return true;
+        }
+    }
+}
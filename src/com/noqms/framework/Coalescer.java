@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packs small outgoing messages to the same destination into one datagram. Used by one processor thread alone, though
+ * the stats may be taken from any thread. A batch is sent when the next message would not fit, or by flush() once it
+ * has lingered long enough.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class Coalescer {
+    private static final int LENGTH_MAX_BYTES = 5;
+
+    private final DatagramSocket datagramSocket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+    private final int maxBytes;
+    private final long lingerNanos;
+    private final Map<InetSocketAddress, Batch> batches = new HashMap<>();
+    private final ArrayDeque<Batch> freeBatches = new ArrayDeque<>();
+    private final AtomicInteger batchesSent = new AtomicInteger();
+    private final AtomicInteger messagesCoalesced = new AtomicInteger();
+
+    public Coalescer(DatagramSocket datagramSocket, int maxBytes, long lingerNanos) {
+        this.datagramSocket = datagramSocket;
+        this.maxBytes = maxBytes;
+        this.lingerNanos = lingerNanos;
+    }
+
+    public boolean fits(int messageLength) {
+        return 1 + LENGTH_MAX_BYTES + messageLength <= maxBytes;
+    }
+
+    /**
+     * Adds an encoded message to the batch for its destination, first sending that batch if the message does not fit.
+     */
+    public void add(byte[] message, int messageLength, InetAddress addressTo, int portTo) throws Exception {
+        InetSocketAddress destination = new InetSocketAddress(addressTo, portTo);
+        Batch batch = batches.get(destination);
+        if (batch != null && batch.buffer.remaining() < LENGTH_MAX_BYTES + messageLength) {
+            batches.remove(destination);
+            send(batch);
+            batch = null;
+        }
+        if (batch == null) {
+            batch = freeBatches.poll();
+            if (batch == null)
+                batch = new Batch(maxBytes);
+            batch.start(destination, System.nanoTime());
+            batches.put(destination, batch);
+        }
+        MessageCodec.putVarLong(batch.buffer, messageLength);
+        batch.buffer.put(message, 0, messageLength);
+        batch.messages++;
+    }
+
+    /**
+     * Sends every batch that has lingered long enough, or every batch if all is true.
+     *
+     * @return nanos until the next remaining batch is due, or Long.MAX_VALUE if none remain
+     */
+    public long flush(boolean all) throws Exception {
+        if (batches.isEmpty())
+            return Long.MAX_VALUE;
+        long currentTimeNanos = System.nanoTime();
+        long nextDueNanos = Long.MAX_VALUE;
+        Exception failure = null;
+        Iterator<Batch> iterator = batches.values().iterator();
+        while (iterator.hasNext()) {
+            Batch batch = iterator.next();
+            long dueNanos = batch.startTimeNanos + lingerNanos - currentTimeNanos;
+            if (!all && dueNanos > 0) {
+                nextDueNanos = Math.min(nextDueNanos, dueNanos);
+                continue;
+            }
+            iterator.remove();
+            try {
+                send(batch);
+            } catch (Exception ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return nextDueNanos;
+    }
+
+    public CoalesceStats getAndResetStats() {
+        return new CoalesceStats(batchesSent.getAndSet(0), messagesCoalesced.getAndSet(0));
+    }
+
+    /**
+     * Coalescing counters reported in the per minute stats.
+     */
+    public static class CoalesceStats {
+        public final int batchesSent;
+        public final int messagesCoalesced;
+
+        CoalesceStats(int batchesSent, int messagesCoalesced) {
+            this.batchesSent = batchesSent;
+            this.messagesCoalesced = messagesCoalesced;
+        }
+    }
+
+    // A batch of one is sent as the plain message without the batch envelope.
+    private void send(Batch batch) throws Exception {
+        try {
+            byte[] data = batch.buffer.array();
+            if (batch.messages == 1) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 1, batch.buffer.position() - 1);
+                int messageLength = (int)MessageCodec.getVarLong(buffer);
+                packet.setData(data, buffer.position(), messageLength);
+            } else {
+                packet.setData(data, 0, batch.buffer.position());
+                batchesSent.incrementAndGet();
+                messagesCoalesced.addAndGet(batch.messages);
+            }
+            packet.setSocketAddress(batch.destination);
+            datagramSocket.send(packet);
+        } finally {
+            batch.destination = null;
+            freeBatches.push(batch);
+        }
+    }
+
+    private static class Batch {
+        private final ByteBuffer buffer;
+        private InetSocketAddress destination;
+        private long startTimeNanos;
+        private int messages;
+
+        private Batch(int maxBytes) {
+            buffer = ByteBuffer.allocate(maxBytes);
+        }
+
+        private void start(InetSocketAddress destination, long startTimeNanos) {
+            this.destination = destination;
+            this.startTimeNanos = startTimeNanos;
+            messages = 0;
+            buffer.clear();
+            buffer.put(MessageCodec.VERSION_BATCH);
+        }
+    }
+}
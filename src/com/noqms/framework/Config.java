@@ -25,11 +25,35 @@ import com.noqms.Starter;
  * @since 1.1.0
  */
 public class Config {
+    public static final String WIRE_FORMAT_BINARY = "binary";
+    public static final String WIRE_FORMAT_JSON = "json";
+    public static final String RECEIVE_MODE_SOCKET = "socket";
+    public static final String RECEIVE_MODE_CHANNEL = "channel";
+
     private static final String DEFAULT_SERVICE_FINDER_PATH = "com.noqms.finder.multicast.ServiceFinderMulticast";
+    private static final String DEFAULT_COMPRESSOR_PATH = "com.noqms.framework.DeflateCompressor";
+    private static final String DEFAULT_LOAD_BALANCER_PATH = "com.noqms.finder.multicast.WeightedLoadBalancer";
     private static final int MAX_STRING_LENGTH = 100;
     private static final int DEFAULT_EMITTER_INTERVAL_SECONDS = 2;
     private static final int DEFAULT_SERVICE_UNAVAILABLE_SECONDS = 1 + 2 * DEFAULT_EMITTER_INTERVAL_SECONDS;
     private static final int MAX_EMITTER_INTERVAL_SECONDS = 10;
+    private static final int DEFAULT_RECEIVE_BUFFERS = 100;
+    private static final int DEFAULT_FRAGMENT_BYTES = 1400;
+    private static final int MIN_FRAGMENT_BYTES = 1000;
+    private static final int MAX_FRAGMENT_BYTES = 65000;
+    private static final int DEFAULT_REASSEMBLY_MESSAGES = 4;
+    private static final int DEFAULT_REASSEMBLY_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_PROCESSOR_THREADS = 64;
+    private static final int DEFAULT_CALLBACK_THREADS = 2;
+    private static final int DEFAULT_ASYNC_REQUESTS_PER_THREAD = 10;
+    private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final int DEFAULT_HEDGE_BUDGET_PERCENT = 10;
+    private static final int DEFAULT_RETRIES = 1;
+    private static final int MAX_RETRIES = 10;
+    private static final int DEFAULT_RETRY_BUDGET_PERCENT = 10;
+    private static final int DEFAULT_BREAKER_FAILURES = 5;
+    private static final int DEFAULT_BREAKER_COOLDOWN_MILLIS = 5000;
+    private static final int DEFAULT_MEMO_MILLIS = 1000;
 
     public final String groupName;
     public final int threads;
@@ -42,6 +66,33 @@ public class Config {
     public final int serviceUnavailableMillis;
     public final String serviceFinderPath;
     public final int dataPort;
+    public final String wireFormat;
+    public final String receiveMode;
+    public final int receiveThreads;
+    public final int receiveBuffers;
+    public final boolean directBuffers;
+    public final int fragmentBytes;
+    public final int reassemblyBytes;
+    public final int reassemblyTimeoutMillis;
+    public final int compressionThresholdBytes;
+    public final String compressorPath;
+    public final int coalesceBytes;
+    public final int coalesceLingerMicros;
+    public final int processorThreads;
+    public final boolean virtualThreads;
+    public final int callbackThreads;
+    public final int asyncRequests;
+    public final int maxBacklog;
+    public final String loadBalancerPath;
+    public final int hedgePercentile;
+    public final int hedgeBudgetPercent;
+    public final int retries;
+    public final int retryBudgetPercent;
+    public final int breakerFailures;
+    public final int breakerCooldownMillis;
+    public final int responseCacheBytes;
+    public final int memoCacheBytes;
+    public final int memoMillis;
 
     public static Config createFromProperties(Properties props) throws Exception {
         int threads = loadInt(props, Starter.PROP_THREADS, null);
@@ -57,6 +108,35 @@ public class Config {
                 DEFAULT_SERVICE_UNAVAILABLE_SECONDS);
         String serviceFinderPath = loadString(props, Starter.PROP_SERVICE_FINDER_PATH, DEFAULT_SERVICE_FINDER_PATH);
         int dataPort = loadInt(props, Starter.PROP_DATA_PORT, 0);
+        String wireFormat = loadString(props, Starter.PROP_WIRE_FORMAT, WIRE_FORMAT_JSON);
+        String receiveMode = loadString(props, Starter.PROP_RECEIVE_MODE, RECEIVE_MODE_SOCKET);
+        int receiveThreads = loadInt(props, Starter.PROP_RECEIVE_THREADS, 1);
+        int receiveBuffers = loadInt(props, Starter.PROP_RECEIVE_BUFFERS, DEFAULT_RECEIVE_BUFFERS + threads);
+        boolean directBuffers = loadBoolean(props, Starter.PROP_DIRECT_BUFFERS, false);
+        int fragmentBytes = loadInt(props, Starter.PROP_FRAGMENT_BYTES, DEFAULT_FRAGMENT_BYTES);
+        int reassemblyBytes = loadInt(props, Starter.PROP_REASSEMBLY_BYTES,
+                (int)Math.min(Integer.MAX_VALUE, (long)DEFAULT_REASSEMBLY_MESSAGES * maxMessageInBytes));
+        int reassemblyTimeoutMillis = loadInt(props, Starter.PROP_REASSEMBLY_TIMEOUT_MILLIS,
+                DEFAULT_REASSEMBLY_TIMEOUT_MILLIS);
+        int compressionThresholdBytes = loadInt(props, Starter.PROP_COMPRESSION_THRESHOLD_BYTES, 0);
+        String compressorPath = loadString(props, Starter.PROP_COMPRESSOR_PATH, DEFAULT_COMPRESSOR_PATH);
+        int coalesceBytes = loadInt(props, Starter.PROP_COALESCE_BYTES, 0);
+        int coalesceLingerMicros = loadInt(props, Starter.PROP_COALESCE_LINGER_MICROS, 0);
+        int processorThreads = loadInt(props, Starter.PROP_PROCESSOR_THREADS, 1);
+        boolean virtualThreads = loadBoolean(props, Starter.PROP_VIRTUAL_THREADS, false);
+        int callbackThreads = loadInt(props, Starter.PROP_CALLBACK_THREADS, DEFAULT_CALLBACK_THREADS);
+        int asyncRequests = loadInt(props, Starter.PROP_ASYNC_REQUESTS, DEFAULT_ASYNC_REQUESTS_PER_THREAD * threads);
+        int maxBacklog = loadInt(props, Starter.PROP_MAX_BACKLOG, 0);
+        String loadBalancerPath = loadString(props, Starter.PROP_LOAD_BALANCER_PATH, DEFAULT_LOAD_BALANCER_PATH);
+        int hedgePercentile = loadInt(props, Starter.PROP_HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE);
+        int hedgeBudgetPercent = loadInt(props, Starter.PROP_HEDGE_BUDGET_PERCENT, DEFAULT_HEDGE_BUDGET_PERCENT);
+        int retries = loadInt(props, Starter.PROP_RETRIES, DEFAULT_RETRIES);
+        int retryBudgetPercent = loadInt(props, Starter.PROP_RETRY_BUDGET_PERCENT, DEFAULT_RETRY_BUDGET_PERCENT);
+        int breakerFailures = loadInt(props, Starter.PROP_BREAKER_FAILURES, DEFAULT_BREAKER_FAILURES);
+        int breakerCooldownMillis = loadInt(props, Starter.PROP_BREAKER_COOLDOWN_MILLIS, DEFAULT_BREAKER_COOLDOWN_MILLIS);
+        int responseCacheBytes = loadInt(props, Starter.PROP_RESPONSE_CACHE_BYTES, 0);
+        int memoCacheBytes = loadInt(props, Starter.PROP_MEMO_CACHE_BYTES, 0);
+        int memoMillis = loadInt(props, Starter.PROP_MEMO_MILLIS, DEFAULT_MEMO_MILLIS);
 
         if (threads < 0)
             throw new Exception("Property noqms.threads must zero or more: " + threads);
@@ -83,15 +163,77 @@ public class Config {
                             + serviceUnavailableSeconds + ", " + emitterIntervalSeconds);
         if (dataPort < 0 || dataPort > 65535)
             throw new Exception("Property noqms.dataPort must be positive and no more than 65535: " + dataPort);
+        if (!wireFormat.equals(WIRE_FORMAT_BINARY) && !wireFormat.equals(WIRE_FORMAT_JSON))
+            throw new Exception("Property noqms.wireFormat must be " + WIRE_FORMAT_BINARY + " or " + WIRE_FORMAT_JSON
+                    + ": " + wireFormat);
+        if (!receiveMode.equals(RECEIVE_MODE_SOCKET) && !receiveMode.equals(RECEIVE_MODE_CHANNEL))
+            throw new Exception("Property noqms.receiveMode must be " + RECEIVE_MODE_SOCKET + " or "
+                    + RECEIVE_MODE_CHANNEL + ": " + receiveMode);
+        if (fragmentBytes < MIN_FRAGMENT_BYTES || fragmentBytes > MAX_FRAGMENT_BYTES)
+            throw new Exception("Property noqms.fragmentBytes must be from " + MIN_FRAGMENT_BYTES + " to "
+                    + MAX_FRAGMENT_BYTES + ": " + fragmentBytes);
+        if (reassemblyBytes < 0)
+            throw new Exception("Property noqms.reassemblyBytes must be zero or more: " + reassemblyBytes);
+        if (reassemblyTimeoutMillis <= 0)
+            throw new Exception("Property noqms.reassemblyTimeoutMillis must be positive: " + reassemblyTimeoutMillis);
+        if (compressionThresholdBytes < 0)
+            throw new Exception(
+                    "Property noqms.compressionThresholdBytes must be zero or more: " + compressionThresholdBytes);
+        if (coalesceBytes < 0 || coalesceBytes > fragmentBytes)
+            throw new Exception("Property noqms.coalesceBytes must be zero or more and no more than noqms.fragmentBytes "
+                    + fragmentBytes + ": " + coalesceBytes);
+        if (coalesceLingerMicros < 0)
+            throw new Exception("Property noqms.coalesceLingerMicros must be zero or more: " + coalesceLingerMicros);
+        if (receiveThreads <= 0)
+            throw new Exception("Property noqms.receiveThreads must be positive: " + receiveThreads);
+        if (receiveBuffers <= 0)
+            throw new Exception("Property noqms.receiveBuffers must be positive: " + receiveBuffers);
+        if (processorThreads <= 0 || processorThreads > MAX_PROCESSOR_THREADS)
+            throw new Exception("Property noqms.processorThreads must be positive and no more than "
+                    + MAX_PROCESSOR_THREADS + ": " + processorThreads);
+        if (callbackThreads <= 0)
+            throw new Exception("Property noqms.callbackThreads must be positive: " + callbackThreads);
+        if (asyncRequests < 0)
+            throw new Exception("Property noqms.asyncRequests must be zero or more: " + asyncRequests);
+        if (maxBacklog < 0)
+            throw new Exception("Property noqms.maxBacklog must be zero or more: " + maxBacklog);
+        if (hedgePercentile <= 0 || hedgePercentile >= 100)
+            throw new Exception("Property noqms.hedgePercentile must be from 1 to 99: " + hedgePercentile);
+        if (hedgeBudgetPercent < 0 || hedgeBudgetPercent > 100)
+            throw new Exception("Property noqms.hedgeBudgetPercent must be from 0 to 100: " + hedgeBudgetPercent);
+        if (retries < 1 || retries > MAX_RETRIES)
+            throw new Exception("Property noqms.retries must be from 1 to " + MAX_RETRIES + ": " + retries);
+        if (retryBudgetPercent < 0 || retryBudgetPercent > 100)
+            throw new Exception("Property noqms.retryBudgetPercent must be from 0 to 100: " + retryBudgetPercent);
+        if (breakerFailures < 0)
+            throw new Exception("Property noqms.breakerFailures must be zero or more: " + breakerFailures);
+        if (breakerCooldownMillis <= 0)
+            throw new Exception("Property noqms.breakerCooldownMillis must be positive: " + breakerCooldownMillis);
+        if (responseCacheBytes < 0)
+            throw new Exception("Property noqms.responseCacheBytes must be zero or more: " + responseCacheBytes);
+        if (memoCacheBytes < 0)
+            throw new Exception("Property noqms.memoCacheBytes must be zero or more: " + memoCacheBytes);
+        if (memoMillis <= 0)
+            throw new Exception("Property noqms.memoMillis must be positive: " + memoMillis);
 
         return new Config(threads, timeoutMillis, serviceName, servicePath, maxMessageOutBytes, maxMessageInBytes,
                 groupName, emitterIntervalSeconds, serviceUnavailableSeconds, serviceFinderPath,
-                dataPort);
+                dataPort, wireFormat, receiveMode, receiveThreads, receiveBuffers, directBuffers, fragmentBytes,
+                reassemblyBytes, reassemblyTimeoutMillis, compressionThresholdBytes, compressorPath,
+                coalesceBytes, coalesceLingerMicros, processorThreads, virtualThreads, callbackThreads, asyncRequests,
+                maxBacklog, loadBalancerPath, hedgePercentile, hedgeBudgetPercent, retries, retryBudgetPercent,
+                breakerFailures, breakerCooldownMillis, responseCacheBytes, memoCacheBytes, memoMillis);
     }
 
     private Config(int threads, int timeoutMillis, String serviceName, String servicePath, int maxMessageOutBytes,
             int maxMessageInBytes, String groupName, int emitterIntervalSeconds,
-            int serviceUnavailableSeconds, String serviceFinderPath, Integer dataPort) {
+            int serviceUnavailableSeconds, String serviceFinderPath, Integer dataPort, String wireFormat,
+            String receiveMode, int receiveThreads, int receiveBuffers, boolean directBuffers, int fragmentBytes,
+            int reassemblyBytes, int reassemblyTimeoutMillis, int compressionThresholdBytes, String compressorPath,
+            int coalesceBytes, int coalesceLingerMicros, int processorThreads, boolean virtualThreads, int callbackThreads, int asyncRequests,
+            int maxBacklog, String loadBalancerPath, int hedgePercentile, int hedgeBudgetPercent, int retries,
+            int retryBudgetPercent, int breakerFailures, int breakerCooldownMillis,
+            int responseCacheBytes, int memoCacheBytes, int memoMillis) {
         this.threads = threads;
         this.timeoutMillis = timeoutMillis;
         this.serviceName = serviceName;
@@ -103,6 +245,33 @@ public class Config {
         this.serviceUnavailableMillis = 1000 * serviceUnavailableSeconds;
         this.serviceFinderPath = serviceFinderPath;
         this.dataPort = dataPort;
+        this.wireFormat = wireFormat;
+        this.receiveMode = receiveMode;
+        this.receiveThreads = receiveThreads;
+        this.receiveBuffers = receiveBuffers;
+        this.directBuffers = directBuffers;
+        this.fragmentBytes = fragmentBytes;
+        this.reassemblyBytes = reassemblyBytes;
+        this.reassemblyTimeoutMillis = reassemblyTimeoutMillis;
+        this.compressionThresholdBytes = compressionThresholdBytes;
+        this.compressorPath = compressorPath;
+        this.coalesceBytes = coalesceBytes;
+        this.coalesceLingerMicros = coalesceLingerMicros;
+        this.processorThreads = processorThreads;
+        this.virtualThreads = virtualThreads;
+        this.callbackThreads = callbackThreads;
+        this.asyncRequests = asyncRequests;
+        this.maxBacklog = maxBacklog;
+        this.loadBalancerPath = loadBalancerPath;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+        this.retries = retries;
+        this.retryBudgetPercent = retryBudgetPercent;
+        this.breakerFailures = breakerFailures;
+        this.breakerCooldownMillis = breakerCooldownMillis;
+        this.responseCacheBytes = responseCacheBytes;
+        this.memoCacheBytes = memoCacheBytes;
+        this.memoMillis = memoMillis;
     }
 
     private static int loadInt(Properties props, String name, Integer defaultValue) throws Exception {
@@ -116,6 +285,20 @@ public class Config {
         return Integer.valueOf(strValue.trim());
     }
 
+    private static boolean loadBoolean(Properties props, String name, Boolean defaultValue) throws Exception {
+        String strValue = props.getProperty(name);
+        if (strValue == null || strValue.isBlank()) {
+            if (defaultValue == null)
+                throw new Exception("Property " + name + " is required");
+            else
+                return defaultValue;
+        }
+        strValue = strValue.trim();
+        if (!strValue.equalsIgnoreCase("true") && !strValue.equalsIgnoreCase("false"))
+            throw new Exception("Property " + name + " must be true or false: " + strValue);
+        return Boolean.parseBoolean(strValue);
+    }
+
     private static String loadString(Properties props, String name, String defaultValue) throws Exception {
         String strValue = props.getProperty(name);
         if (strValue == null || strValue.isBlank()) {
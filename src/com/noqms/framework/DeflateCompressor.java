@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.noqms.Compressor;
+
+/**
+ * The default compressor - raw deflate at its fastest level. Deflaters and inflaters are kept per thread.
+ * 
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class DeflateCompressor implements Compressor {
+    private static final String NAME = "deflate";
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int compress(ByteBuffer in, ByteBuffer out) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(in);
+        deflater.finish();
+        int start = out.position();
+        while (!deflater.finished()) {
+            if (!out.hasRemaining())
+                return -1;
+            deflater.deflate(out);
+        }
+        return out.position() - start;
+    }
+
+    @Override
+    public void decompress(ByteBuffer in, ByteBuffer out) throws Exception {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(in);
+        while (out.hasRemaining()) {
+            if (inflater.inflate(out) == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                throw new Exception("Compressed data is shorter than its stated length");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts fragmented messages back together. Shared by the receive threads. The bytes held by incomplete messages are
+ * bounded, and incomplete messages are dropped once they are older than the reassembly timeout.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class FragmentReassembler {
+    private static final int EXPIRE_INTERVAL_MILLIS = 100;
+
+    private final Map<Key, Reassembly> reassemblies = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final int maxMessageBytes;
+    private final int timeoutMillis;
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final AtomicLong lastExpireTimeMillis = new AtomicLong();
+    private final AtomicInteger fragmentsReceived = new AtomicInteger();
+    private final AtomicInteger fragmentsDropped = new AtomicInteger();
+    private final AtomicInteger messagesReassembled = new AtomicInteger();
+    private final AtomicInteger messagesTimedOut = new AtomicInteger();
+
+    public FragmentReassembler(long maxBytes, int maxMessageBytes, int timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.maxMessageBytes = maxMessageBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param fragment a fragment datagram positioned at its version byte - it is copied and can be reused after this
+     * @return the complete message positioned at its version byte once the last fragment is in, else null
+     */
+    public ByteBuffer accept(ByteBuffer fragment, InetAddress addressFrom, int portFrom) {
+        long currentTimeMillis = System.currentTimeMillis();
+        expire(currentTimeMillis);
+        fragmentsReceived.incrementAndGet();
+
+        long messageId;
+        int index, count, totalLength, offset;
+        try {
+            fragment.get(); // version
+            messageId = MessageCodec.getVarLong(fragment);
+            index = (int)MessageCodec.getVarLong(fragment);
+            count = (int)MessageCodec.getVarLong(fragment);
+            totalLength = (int)MessageCodec.getVarLong(fragment);
+            offset = (int)MessageCodec.getVarLong(fragment);
+        } catch (RuntimeException ex) {
+            fragmentsDropped.incrementAndGet();
+            return null;
+        }
+        int length = fragment.remaining();
+        if (count < 2 || count > totalLength || index < 0 || index >= count || totalLength <= 0 || totalLength > maxMessageBytes
+                || offset < 0 || length == 0 || offset + length > totalLength) {
+            fragmentsDropped.incrementAndGet();
+            return null;
+        }
+
+        Key key = new Key(addressFrom, portFrom, messageId);
+        Reassembly reassembly = reassemblies.get(key);
+        if (reassembly == null) {
+            if (bytesInUse.addAndGet(totalLength) > maxBytes) {
+                bytesInUse.addAndGet(-totalLength);
+                fragmentsDropped.incrementAndGet();
+                return null;
+            }
+            Reassembly newReassembly = new Reassembly(totalLength, count, currentTimeMillis);
+            reassembly = reassemblies.putIfAbsent(key, newReassembly);
+            if (reassembly == null)
+                reassembly = newReassembly;
+            else
+                bytesInUse.addAndGet(-totalLength);
+        }
+
+        synchronized (reassembly) {
+            if (reassembly.done || reassembly.data.length != totalLength || reassembly.received.length != count
+                    || reassembly.received[index]) {
+                fragmentsDropped.incrementAndGet();
+                return null;
+            }
+            fragment.get(reassembly.data, offset, length);
+            reassembly.received[index] = true;
+            reassembly.receivedBytes += length;
+            if (++reassembly.receivedCount < count)
+                return null;
+            reassembly.done = true;
+        }
+
+        reassemblies.remove(key);
+        bytesInUse.addAndGet(-totalLength);
+        if (reassembly.receivedBytes != totalLength) {
+            fragmentsDropped.addAndGet(count);
+            return null;
+        }
+        messagesReassembled.incrementAndGet();
+        return ByteBuffer.wrap(reassembly.data);
+    }
+
+    public FragmentStats getAndResetStats(int fragmentsSent) {
+        return new FragmentStats(fragmentsSent, fragmentsReceived.getAndSet(0), fragmentsDropped.getAndSet(0),
+                messagesReassembled.getAndSet(0), messagesTimedOut.getAndSet(0), bytesInUse.get());
+    }
+
+    private void expire(long currentTimeMillis) {
+        long lastTimeMillis = lastExpireTimeMillis.get();
+        if (currentTimeMillis - lastTimeMillis < EXPIRE_INTERVAL_MILLIS
+                || !lastExpireTimeMillis.compareAndSet(lastTimeMillis, currentTimeMillis))
+            return;
+        Iterator<Reassembly> iterator = reassemblies.values().iterator();
+        while (iterator.hasNext()) {
+            Reassembly reassembly = iterator.next();
+            if (currentTimeMillis - reassembly.startTimeMillis < timeoutMillis)
+                continue;
+            synchronized (reassembly) {
+                if (reassembly.done)
+                    continue;
+                reassembly.done = true;
+            }
+            iterator.remove();
+            bytesInUse.addAndGet(-reassembly.data.length);
+            messagesTimedOut.incrementAndGet();
+            fragmentsDropped.addAndGet(reassembly.receivedCount);
+        }
+    }
+
+    /**
+     * Reassembly counters reported in the per minute stats.
+     */
+    public static class FragmentStats {
+        public final int fragmentsSent;
+        public final int fragmentsReceived;
+        public final int fragmentsDropped;
+        public final int messagesReassembled;
+        public final int messagesTimedOut;
+        public final long bytesInUse;
+
+        private FragmentStats(int fragmentsSent, int fragmentsReceived, int fragmentsDropped,
+                int messagesReassembled, int messagesTimedOut, long bytesInUse) {
+            this.fragmentsSent = fragmentsSent;
+            this.fragmentsReceived = fragmentsReceived;
+            this.fragmentsDropped = fragmentsDropped;
+            this.messagesReassembled = messagesReassembled;
+            this.messagesTimedOut = messagesTimedOut;
+            this.bytesInUse = bytesInUse;
+        }
+    }
+
+    private static class Reassembly {
+        private final byte[] data;
+        private final boolean[] received;
+        private final long startTimeMillis;
+        private int receivedCount;
+        private int receivedBytes;
+        private boolean done;
+
+        private Reassembly(int totalLength, int count, long startTimeMillis) {
+            this.data = new byte[totalLength];
+            this.received = new boolean[count];
+            this.startTimeMillis = startTimeMillis;
+        }
+    }
+
+    private static class Key {
+        private final InetAddress address;
+        private final int port;
+        private final long messageId;
+
+        private Key(InetAddress address, int port, long messageId) {
+            this.address = address;
+            this.port = port;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key)o;
+            return messageId == other.messageId && port == other.port && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * address.hashCode() + port) + Long.hashCode(messageId);
+        }
+    }
+}
@@ -19,8 +19,13 @@ package com.noqms.framework;
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.noqms.Compressor;
+import com.noqms.LoadBalancer;
 import com.noqms.LogListener;
 import com.noqms.MicroService;
 import com.noqms.ServiceFinder;
@@ -37,6 +42,8 @@ public class Harness {
     private Processor processor;
     private ServiceFinder serviceFinder;
     private ServiceUdp serviceUdp;
+    private Compressor compressor;
+    private ExecutorService callbackExecutor;
     private final AtomicBoolean stopped = new AtomicBoolean();
 
     public MicroService start(Properties props, LogListener externalLogger) throws Exception {
@@ -62,11 +69,26 @@ public class Harness {
 
         try {
             myInetAddress = Util.findMyInetAddress();
+
+            if (config.compressionThresholdBytes > 0) {
+                Class<?> compressorClass = Class.forName(config.compressorPath);
+                compressor = (Compressor)compressorClass.getConstructor().newInstance();
+            }
+
+            AtomicInteger callbackThreadNumber = new AtomicInteger();
+            callbackExecutor = Executors.newFixedThreadPool(config.callbackThreads, runnable -> {
+                Thread thread = new Thread(runnable, "noqms-callback-" + callbackThreadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+
             serviceUdp = new ServiceUdp(this);
 
             Class<?> objectClass = Class.forName(config.serviceFinderPath);
             Constructor<?> constructor = objectClass.getConstructor(String.class, LogListener.class, Properties.class);
             serviceFinder = (ServiceFinder)constructor.newInstance(config.groupName, logger, props);
+            Class<?> loadBalancerClass = Class.forName(config.loadBalancerPath);
+            serviceFinder.configure(config.serviceUnavailableMillis, (LoadBalancer)loadBalancerClass.getConstructor().newInstance());
             serviceFinder.start();
 
             processor = new Processor(this);
@@ -114,6 +136,20 @@ public class Harness {
         return serviceUdp;
     }
 
+    /**
+     * @return the compressor, or null if compression is disabled
+     */
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * @return the executor running ResponseFuture callbacks
+     */
+    public ExecutorService getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
     public void drain() {
         logger.info("Draining");
         if (serviceInfoEmitter != null)
@@ -136,6 +172,8 @@ public class Harness {
             }
             if (serviceUdp != null)
                 serviceUdp.die();
+            if (callbackExecutor != null)
+                callbackExecutor.shutdown();
             logger.info("Stopped");
             logger.die();
         }
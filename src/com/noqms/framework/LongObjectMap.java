@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+/**
+ * Open addressing map from nonzero long keys to objects, for a single thread. Keys and values sit in parallel arrays
+ * probed linearly, so nothing is boxed or allocated per entry. Removal shifts later entries back into the gap rather
+ * than leaving tombstones, which keeps probe sequences short under constant put and remove churn.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class LongObjectMap<V> {
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeSize;
+
+    /**
+     * @param expectedSize the size to hold without growing
+     */
+    public LongObjectMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int ix = slot(key);; ix = (ix + 1) & mask) {
+            long slotKey = keys[ix];
+            if (slotKey == key)
+                return (V)values[ix];
+            if (slotKey == EMPTY)
+                return null;
+        }
+    }
+
+    /**
+     * @return the previous value for the key, or null
+     * @throws IllegalArgumentException if the key is zero
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == EMPTY)
+            throw new IllegalArgumentException("Key must not be zero");
+        int ix = slot(key);
+        for (;; ix = (ix + 1) & mask) {
+            long slotKey = keys[ix];
+            if (slotKey == key) {
+                V previous = (V)values[ix];
+                values[ix] = value;
+                return previous;
+            }
+            if (slotKey == EMPTY)
+                break;
+        }
+        keys[ix] = key;
+        values[ix] = value;
+        if (++size > resizeSize)
+            allocate(keys.length * 2);
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == EMPTY)
+            return null;
+        int ix = slot(key);
+        for (;; ix = (ix + 1) & mask) {
+            long slotKey = keys[ix];
+            if (slotKey == key)
+                break;
+            if (slotKey == EMPTY)
+                return null;
+        }
+        V removed = (V)values[ix];
+        size--;
+
+        // Shift back each following entry that may live in the gap, ie. whose home slot is not between gap and it.
+        int gap = ix;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+        return removed;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L; // spreads sequential ids
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeSize = capacity / 2;
+        if (oldKeys == null)
+            return;
+        for (int ix = 0; ix < oldKeys.length; ix++) {
+            long key = oldKeys[ix];
+            if (key == EMPTY)
+                continue;
+            int slot = slot(key);
+            while (keys[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = oldValues[ix];
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes message headers directly into and out of datagram buffers.
+ *
+ * The binary format is a version byte, a flags byte, an optional varint id, length prefixed UTF-8 service names,
+ * optional response meta with its own flags byte, an optional compressor name, if the data is compressed its varint uncompressed length, and
+ * an optional varint deadline. The legacy format is a 10 digit ASCII header length followed by the JSON header. The
+ * first byte tells them apart since the legacy format always starts with an ASCII digit.
+ *
+ * A binary message too large for one datagram is split into fragments, each a version byte, varints for the message
+ * id, fragment index, fragment count, total message length and fragment offset, followed by that slice of the message.
+ * Small binary messages to the same destination may be batched into one datagram, a version byte followed by each
+ * message prefixed with its varint length.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class MessageCodec {
+    public static final byte VERSION_1 = 1;
+    public static final byte VERSION_FRAGMENT = 2;
+    public static final byte VERSION_BATCH = 3;
+    public static final int FRAGMENT_HEADER_MAX_BYTES = 1 + 10 + 4 * 5;
+
+    private static final int LEGACY_HEADER_LENGTH_BYTES = 10;
+
+    private static final int FLAG_ID = 0x01;
+    private static final int FLAG_RESPONSE_META = 0x02;
+    private static final int FLAG_COMPRESSION = 0x04;
+    private static final int FLAG_COMPRESSED = 0x08;
+    private static final int FLAG_DEADLINE = 0x10;
+
+    private static final int META_FLAG_CODE = 0x01;
+    private static final int META_FLAG_USER_MESSAGE = 0x02;
+    private static final int META_FLAG_NERD_DETAIL = 0x04;
+    private static final int META_FLAG_REJECTED = 0x08;
+    private static final int META_FLAG_CACHE_MILLIS = 0x10;
+
+    /**
+     * Writes the header at the buffer position in the binary format, leaving the position just past the header.
+     *
+     * @return false if the header does not fit or exceeds MessageHeader.MAX_BYTES
+     */
+    public static boolean encode(MessageHeader header, ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            int flags = 0;
+            if (header.id != null)
+                flags |= FLAG_ID;
+            if (header.responseMeta != null)
+                flags |= FLAG_RESPONSE_META;
+            if (header.compression != null)
+                flags |= FLAG_COMPRESSION;
+            if (header.uncompressedLength != null)
+                flags |= FLAG_COMPRESSED;
+            if (header.deadlineMillis != null)
+                flags |= FLAG_DEADLINE;
+            buffer.put(VERSION_1);
+            buffer.put((byte)flags);
+            if (header.id != null)
+                putVarLong(buffer, header.id);
+            putString(buffer, header.serviceNameFrom);
+            putString(buffer, header.serviceNameTo);
+            if (header.responseMeta != null) {
+                MessageHeader.ResponseMeta meta = header.responseMeta;
+                int metaFlags = 0;
+                if (meta.code != null)
+                    metaFlags |= META_FLAG_CODE;
+                if (meta.userMessage != null)
+                    metaFlags |= META_FLAG_USER_MESSAGE;
+                if (meta.nerdDetail != null)
+                    metaFlags |= META_FLAG_NERD_DETAIL;
+                if (Boolean.TRUE.equals(meta.rejected))
+                    metaFlags |= META_FLAG_REJECTED;
+                if (meta.cacheMillis != null)
+                    metaFlags |= META_FLAG_CACHE_MILLIS;
+                buffer.put((byte)metaFlags);
+                if (meta.code != null)
+                    putVarLong(buffer, zigZag(meta.code));
+                if (meta.userMessage != null)
+                    putString(buffer, meta.userMessage);
+                if (meta.nerdDetail != null)
+                    putString(buffer, meta.nerdDetail);
+                if (meta.cacheMillis != null)
+                    putVarLong(buffer, meta.cacheMillis);
+            }
+            if (header.compression != null)
+                putString(buffer, header.compression);
+            if (header.uncompressedLength != null)
+                putVarLong(buffer, header.uncompressedLength);
+            if (header.deadlineMillis != null)
+                putVarLong(buffer, header.deadlineMillis);
+        } catch (BufferOverflowException ex) {
+            buffer.position(start);
+            return false;
+        }
+        if (buffer.position() - start > MessageHeader.MAX_BYTES) {
+            buffer.position(start);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the header at the buffer position in the legacy JSON format, leaving the position just past the header.
+     *
+     * @return false if the header does not fit or exceeds MessageHeader.MAX_BYTES
+     */
+    public static boolean encodeLegacy(MessageHeader header, ByteBuffer buffer) {
+        byte[] headerBytes = Util.jsonBytesFromObject(header);
+        int headerLength = headerBytes.length;
+        if (headerLength > MessageHeader.MAX_BYTES || buffer.remaining() < LEGACY_HEADER_LENGTH_BYTES + headerLength)
+            return false;
+        int end = buffer.position() + LEGACY_HEADER_LENGTH_BYTES;
+        for (int ix = end - 1; ix >= end - LEGACY_HEADER_LENGTH_BYTES; ix--) {
+            buffer.put(ix, (byte)('0' + headerLength % 10));
+            headerLength /= 10;
+        }
+        buffer.position(end);
+        buffer.put(headerBytes);
+        return true;
+    }
+
+    /**
+     * Reads a header in either format from the buffer position, leaving the position at the start of the message data.
+     *
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    public static MessageHeader decode(ByteBuffer buffer) {
+        if (!buffer.hasRemaining())
+            throw new IllegalArgumentException("Empty message");
+        byte first = buffer.get(buffer.position());
+        if (first >= '0' && first <= '9')
+            return decodeLegacy(buffer);
+        if (first != VERSION_1)
+            throw new IllegalArgumentException("Unsupported message version: " + first);
+
+        int start = buffer.position();
+        MessageHeader header = new MessageHeader();
+        try {
+            buffer.get(); // version
+            int flags = buffer.get();
+            if ((flags & FLAG_ID) != 0)
+                header.id = getVarLong(buffer);
+            header.serviceNameFrom = getString(buffer);
+            header.serviceNameTo = getString(buffer);
+            if ((flags & FLAG_RESPONSE_META) != 0) {
+                MessageHeader.ResponseMeta meta = new MessageHeader.ResponseMeta();
+                int metaFlags = buffer.get();
+                if ((metaFlags & META_FLAG_CODE) != 0)
+                    meta.code = (int)unZigZag(getVarLong(buffer));
+                if ((metaFlags & META_FLAG_USER_MESSAGE) != 0)
+                    meta.userMessage = getString(buffer);
+                if ((metaFlags & META_FLAG_NERD_DETAIL) != 0)
+                    meta.nerdDetail = getString(buffer);
+                if ((metaFlags & META_FLAG_REJECTED) != 0)
+                    meta.rejected = true;
+                if ((metaFlags & META_FLAG_CACHE_MILLIS) != 0)
+                    meta.cacheMillis = (int)getVarLong(buffer);
+                header.responseMeta = meta;
+            }
+            if ((flags & FLAG_COMPRESSION) != 0)
+                header.compression = getString(buffer);
+            if ((flags & FLAG_COMPRESSED) != 0)
+                header.uncompressedLength = (int)getVarLong(buffer);
+            if ((flags & FLAG_DEADLINE) != 0)
+                header.deadlineMillis = (int)getVarLong(buffer);
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Malformed binary header", ex);
+        }
+        if (buffer.position() - start > MessageHeader.MAX_BYTES)
+            throw new IllegalArgumentException("Header length exceeds maximum: " + (buffer.position() - start));
+        return header;
+    }
+
+    private static MessageHeader decodeLegacy(ByteBuffer buffer) {
+        if (buffer.remaining() < LEGACY_HEADER_LENGTH_BYTES)
+            throw new IllegalArgumentException("Message is too small: " + buffer.remaining());
+        int headerLength = 0;
+        for (int ix = 0; ix < LEGACY_HEADER_LENGTH_BYTES; ix++) {
+            byte digit = buffer.get();
+            if (digit < '0' || digit > '9')
+                throw new IllegalArgumentException("Invalid header length");
+            headerLength = 10 * headerLength + (digit - '0');
+            if (headerLength > MessageHeader.MAX_BYTES)
+                throw new IllegalArgumentException("Header length exceeds maximum: " + headerLength);
+        }
+        if (buffer.remaining() < headerLength)
+            throw new IllegalArgumentException(
+                    "Insufficient bytes for header: " + buffer.remaining() + " < " + headerLength);
+        MessageHeader header;
+        if (buffer.hasArray()) {
+            header = Util.jsonObjectFromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), headerLength,
+                    MessageHeader.class);
+            buffer.position(buffer.position() + headerLength);
+        } else {
+            byte[] headerBytes = new byte[headerLength];
+            buffer.get(headerBytes);
+            header = Util.jsonObjectFromBytes(headerBytes, MessageHeader.class);
+        }
+        if (header == null)
+            throw new IllegalArgumentException("Empty header");
+        return header;
+    }
+
+    /**
+     * Writes a fragment header at the buffer position, leaving the position where the fragment bytes go.
+     */
+    public static void encodeFragmentHeader(ByteBuffer buffer, long messageId, int index, int count, int totalLength,
+            int offset) {
+        buffer.put(VERSION_FRAGMENT);
+        putVarLong(buffer, messageId);
+        putVarLong(buffer, index);
+        putVarLong(buffer, count);
+        putVarLong(buffer, totalLength);
+        putVarLong(buffer, offset);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long zigZag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // A string is a varint of its UTF-8 byte length plus one, zero meaning null, followed by those bytes.
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put((byte)0);
+            return;
+        }
+        int length = value.length();
+        boolean ascii = true;
+        for (int ix = 0; ix < length; ix++) {
+            if (value.charAt(ix) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            putVarLong(buffer, length + 1);
+            for (int ix = 0; ix < length; ix++)
+                buffer.put((byte)value.charAt(ix));
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarLong(buffer, bytes.length + 1);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        long lengthPlusOne = getVarLong(buffer);
+        if (lengthPlusOne == 0)
+            return null;
+        if (lengthPlusOne - 1 > buffer.remaining())
+            throw new IllegalArgumentException("String length exceeds message: " + (lengthPlusOne - 1));
+        int length = (int)(lengthPlusOne - 1);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
@@ -32,10 +32,15 @@ public class MessageHeader {
         @SerializedName(value = "c") public Integer code;               // application-defined status code (200,400,409,500 for example), if any
         @SerializedName(value = "u") public String userMessage;         // user message, if any
         @SerializedName(value = "n") public String nerdDetail;          // stack trace, critical details, etc, if any
+        @SerializedName(value = "r") public Boolean rejected;           // true if the framework turned the request away unprocessed because the service was too busy
+        @SerializedName(value = "k") public Integer cacheMillis;        // millis the requester may reuse this response for identical requests, if any
     }
 
     @SerializedName(value = "n") public String serviceNameFrom;         // microservice name from
     @SerializedName(value = "t") public String serviceNameTo;           // microservice name to  
     @SerializedName(value = "i") public Long id;                        // requestId/responseId: present if this is a request and a response is expected or if this is a response (echo the request id value) 
     @SerializedName(value = "m") public ResponseMeta responseMeta;      // present if this is a response
+    @SerializedName(value = "z") public String compression;             // compressor name the requester can decode a compressed response with, if any
+    @SerializedName(value = "l") public Integer uncompressedLength;     // present if the data is compressed - binary wire format only
+    @SerializedName(value = "d") public Integer deadlineMillis;         // millis the requester will wait from when it was sent, if a response is expected
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock free queue for many producer threads and a single consumer thread. Producers swap themselves in as
+ * the tail and then link from the previous tail, so an offer is one atomic swap and never spins.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class MpscQueue<E> {
+    private final AtomicReference<Node<E>> tail;
+    private Node<E> head; // consumer only - always a spent node whose value has been taken
+
+    public MpscQueue() {
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Safe from any thread.
+     */
+    public void offer(E value) {
+        Node<E> node = new Node<>(value);
+        Node<E> previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+
+    /**
+     * Consumer thread only.
+     * 
+     * @return the next value or null if none is visible yet
+     */
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null)
+            return null;
+        E value = next.value;
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    /**
+     * Consumer thread only. An offer whose link is not yet visible counts as empty, so check again after a wakeup.
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static class Node<E> {
+        private volatile Node<E> next;
+        private E value;
+
+        private Node(E value) {
+            this.value = value;
+        }
+    }
+}
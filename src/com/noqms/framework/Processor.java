@@ -18,15 +18,10 @@ package com.noqms.framework;
 
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
-import java.util.ArrayDeque;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -38,33 +33,44 @@ import com.noqms.ResponseFuture;
 import com.noqms.ServiceInfo;
 
 /**
+ * Routes messages between your microservice and its processor shards. Requests from you and to you are spread over
+ * the shards, and responses go to the shard owning the request id. Shard 0 also applies back pressure and gathers the
+ * per minute stats.
+ *
  * @author Stanley Barzee
  * @since 1.0.0
  */
-public class Processor extends Thread {
+public class Processor {
     private static final int ONE_MINUTE_MILLIS = (int)TimeUnit.MINUTES.toMillis(1);
+    private static final int AVERAGE_SHIFT = 8; // fixed point fraction bits of the average processing millis
+    private static final int AVERAGE_WEIGHT = 8; // each new sample moves the average an eighth of the way
 
     private final Harness harness;
     private final Config config;
     private final LogListener logger;
     private final MicroService microService;
-    private final ArrayDeque<MessageToMe> messagesToMe = new ArrayDeque<>();
-    private final ArrayDeque<MessageFromMe> messagesFromMe = new ArrayDeque<>();
-    private final AtomicLong requestIdGenerator = new AtomicLong();
-    private final ArrayDeque<RequestToMeThread.Request> requestsToMe = new ArrayDeque<>();
-    private final List<RequestToMeThread> requestToMeThreads = new ArrayList<>();
-    private final Map<Long, RequestFromMeExpectingResponse> requestsFromMeByRequestId = new ConcurrentHashMap<>();
-    private final Map<Long, RequestToMeExpectingResponse> requestsToMeByInternalRequestId = new ConcurrentHashMap<>();
-    private final DelayQueue<ExpiringId> expiringRequestsFromMe = new DelayQueue<>();
-    private final DelayQueue<ExpiringId> expiringRequestsToMe = new DelayQueue<>();
+    private final RequestToMeDispatcher requestToMeDispatcher;
+    private final List<ProcessorShard> shards = new ArrayList<>();
+    private final AtomicInteger nextShardIndex = new AtomicInteger();
+    private final AtomicInteger asyncRequestsInFlight = new AtomicInteger();
+    private final AtomicInteger requestsToMeRunning = new AtomicInteger();
+    private final AtomicLong processRequestMillisAverage = new AtomicLong(); // fixed point, see AVERAGE_SHIFT
+    private final CircuitBreakers circuitBreakers;
+    private final ResponseCache<ResponseFuture.Response> responseCache; // null if not caching
+    private final ResponseCache<MemoizedResponse> memoCache; // null if not memoizing
+    private final AtomicLong memoGeneration = new AtomicLong(); // bumped by every invalidation
     private final PerMinuteStats perMinuteStats = new PerMinuteStats();
-    private final AtomicBoolean die = new AtomicBoolean();
     private final AtomicReference<String> lastPerMinuteStats = new AtomicReference<>("");    
+    private long lastStatsReportTimeMillis = System.currentTimeMillis(); // shard 0 only
+    private volatile boolean backPressure; // set by shard 0 only
 
     public Processor(Harness harness) throws Exception {
         this.harness = harness;
         this.config = harness.getConfig();
         this.logger = harness.getLogger();
+        this.circuitBreakers = new CircuitBreakers(config.breakerFailures, config.breakerCooldownMillis);
+        this.responseCache = config.responseCacheBytes == 0 ? null : new ResponseCache<>(config.responseCacheBytes);
+        this.memoCache = config.memoCacheBytes == 0 ? null : new ResponseCache<>(config.memoCacheBytes);
 
         try {
             Class<?> objectClass = Class.forName(config.servicePath);
@@ -76,13 +82,15 @@ public class Processor extends Thread {
             throw new Exception("Failed loading your microservice: " + config.servicePath, ex);
         }
 
-        for (int ix = 0; ix < config.threads; ix++)
-            requestToMeThreads.add(new RequestToMeThread(harness, requestsToMe, microService, ix));
-        for (RequestToMeThread requestToMeThread : requestToMeThreads)
-            requestToMeThread.start();
+        if (config.virtualThreads)
+            requestToMeDispatcher = new RequestToMeVirtualThreads(harness, microService);
+        else
+            requestToMeDispatcher = new RequestToMeThreads(harness, microService);
 
-        setDaemon(true);
-        start();
+        for (int ix = 0; ix < config.processorThreads; ix++)
+            shards.add(new ProcessorShard(harness, this, ix));
+        for (ProcessorShard shard : shards)
+            shard.start();
     }
 
     public MicroService getMicroService() {
@@ -90,9 +98,9 @@ public class Processor extends Thread {
     }
 
     public void die() {
-        die.set(true);
-        for (RequestToMeThread requestToMeThread : requestToMeThreads)
-            requestToMeThread.die();
+        for (ProcessorShard shard : shards)
+            shard.die();
+        requestToMeDispatcher.die();
     }
 
     public String getPerMinuteStats() {
@@ -101,40 +109,92 @@ public class Processor extends Thread {
     
     // Deal with the data and return quickly.
     // Both requests to me and response to me come through here.
-    public void acceptMessageToMe(MessageHeader header, byte[] data, InetAddress serviceAddressFrom, int servicePortFrom) {
-        synchronized (messagesToMe) {
-            messagesToMe.add(new MessageToMe(header, data, serviceAddressFrom, servicePortFrom));
-            messagesToMe.notify();
-        }
+    // If a buffer pool is given the data lives in a pooled buffer which must be released once consumed.
+    public void acceptMessageToMe(MessageHeader header, ByteBuffer data, BufferPool bufferPool, InetAddress serviceAddressFrom, int servicePortFrom) {
+        ProcessorShard shard = header.responseMeta != null && header.id != null ? getShard(header.id) : nextShard();
+        shard.acceptMessageToMe(header, data, bufferPool, serviceAddressFrom, servicePortFrom);
     }
 
     public ResponseFuture sendRequestExpectResponse(String serviceNameTo, byte[] data) {
+        return sendRequestExpectResponse(serviceNameTo, data, 0);
+    }
+
+    /**
+     * @param options ProcessorShard.OPTION_ flags for copying the request to another instance, or 0
+     */
+    public ResponseFuture sendRequestExpectResponse(String serviceNameTo, byte[] data, int options) {
+        RequestKey requestKey = null;
+        if (responseCache != null || (options & ProcessorShard.OPTION_SINGLE_FLIGHT) != 0)
+            requestKey = new RequestKey(serviceNameTo, data);
+        if (responseCache != null) {
+            ResponseFuture.Response response = responseCache.get(requestKey);
+            if (response != null) {
+                ResponseFuture responseFuture = new ResponseFuture(RequestStatus.Ok, harness.getCallbackExecutor(), logger);
+                responseFuture.set(response);
+                return responseFuture;
+            }
+        }
         ServiceInfo service = null;
         try {
             service = harness.getServiceFinder().findService(serviceNameTo);
         } catch (Throwable th) {
             perMinuteStats.failedRequests.incrementAndGet();
             logger.error("The pluggable service finder threw an exception in findService()", th);
-            return new ResponseFuture(RequestStatus.ServiceNotFound);
+            return new ResponseFuture(RequestStatus.ServiceNotFound, harness.getCallbackExecutor(), logger);
         }
         if (service == null) {
             perMinuteStats.failedRequests.incrementAndGet();
             logger.warn("The sendRequestExpectResponse() serviceNameTo service does not exist: " + serviceNameTo);
-            return new ResponseFuture(RequestStatus.ServiceNotFound);
+            return new ResponseFuture(RequestStatus.ServiceNotFound, harness.getCallbackExecutor(), logger);
         }
         if (service.elapsedMillis > harness.getConfig().serviceUnavailableMillis) {
             perMinuteStats.failedRequests.incrementAndGet();
             logger.warn("The sendRequestExpectResponse() serviceNameTo service is not responsive: " + serviceNameTo);
-            return new ResponseFuture(RequestStatus.ServiceNotResponsive);
+            return new ResponseFuture(RequestStatus.ServiceNotResponsive, harness.getCallbackExecutor(), logger);
+        }
+        // Made while processing a request to me, the wait is cut short to what remains of that request's deadline.
+        long remainingMillis = Long.MAX_VALUE;
+        Long currentDeadlineNanos = RequestToMeThread.getCurrentDeadlineNanos();
+        if (currentDeadlineNanos != null) {
+            remainingMillis = TimeUnit.NANOSECONDS.toMillis(currentDeadlineNanos - System.nanoTime());
+            if (remainingMillis <= 0) {
+                perMinuteStats.requestsNotSentPastDeadline.incrementAndGet();
+                ResponseFuture responseFuture = new ResponseFuture(RequestStatus.Ok, harness.getCallbackExecutor(), logger);
+                responseFuture.set(new ResponseFuture.Response(true, null, null, 0, null, null));
+                return responseFuture;
+            }
+        }
+        // Last before sending, since a half open circuit breaker's probe is claimed here and only cleared by its outcome.
+        int admission = circuitBreakers.tryAcquire(service);
+        if (admission == CircuitBreakers.DENIED) {
+            try {
+                service = harness.getServiceFinder().findService(serviceNameTo, circuitBreakers::isAllowed);
+            } catch (Throwable th) {
+                logger.error("The pluggable service finder threw an exception in findService()", th);
+                service = null;
+            }
+            if (service != null && service.elapsedMillis <= config.serviceUnavailableMillis)
+                admission = circuitBreakers.tryAcquire(service);
+            if (admission == CircuitBreakers.DENIED) {
+                perMinuteStats.failedRequests.incrementAndGet();
+                logger.warn("The sendRequestExpectResponse() serviceNameTo service has every instance skipped after failures: " + serviceNameTo);
+                return new ResponseFuture(RequestStatus.ServiceCircuitOpen, harness.getCallbackExecutor(), logger);
+            }
         }
+        if (admission == CircuitBreakers.PROBE)
+            options &= ~ProcessorShard.OPTION_SINGLE_FLIGHT; // the probe must really be sent, not joined to another request
+        int timeoutMillis = (int)Math.min(service.timeoutMillis, remainingMillis);
         MessageHeader header = new MessageHeader();
         header.serviceNameFrom = config.serviceName;
         header.serviceNameTo = serviceNameTo;
-        header.id = requestIdGenerator.incrementAndGet();
-        ResponseFuture responseFuture = new ResponseFuture(RequestStatus.Ok);
-        synchronized (messagesFromMe) {
-            messagesFromMe.add(new MessageFromMe(header, data, responseFuture, service, null));
-        }
+        // Identical single flight requests go to the same shard to meet there.
+        ProcessorShard shard = (options & ProcessorShard.OPTION_SINGLE_FLIGHT) == 0 ? nextShard() : shards.get(requestKey.getShardIndex(shards.size()));
+        header.id = shard.nextRequestId();
+        header.deadlineMillis = timeoutMillis;
+        if (harness.getCompressor() != null)
+            header.compression = harness.getCompressor().getName();
+        ResponseFuture responseFuture = new ResponseFuture(RequestStatus.Ok, harness.getCallbackExecutor(), logger);
+        shard.acceptMessageFromMe(header, data, responseFuture, service, null, options, requestKey);
         return responseFuture;
     }
 
@@ -161,13 +221,11 @@ public class Processor extends Thread {
         header.serviceNameFrom = config.serviceName;
         header.serviceNameTo = serviceNameTo;
         // header.id is not populated for requests not wanting a response
-        synchronized (messagesFromMe) {
-            messagesFromMe.add(new MessageFromMe(header, data, null, service, null));
-        }
+        nextShard().acceptMessageFromMe(header, data, null, service, null, 0);
         return RequestStatus.Ok;
     }
 
-    public void sendResponse(Long internalRequestId, Integer code, String userMessage, String nerdDetail, byte[] data) {
+    public void sendResponse(Long internalRequestId, Integer code, String userMessage, String nerdDetail, byte[] data, int cacheMillis) {
         MessageHeader header = new MessageHeader();
         header.serviceNameFrom = config.serviceName;
         // header.serviceNameTo is populated from the original header id
@@ -176,231 +234,197 @@ public class Processor extends Thread {
         header.responseMeta.code = code;
         header.responseMeta.userMessage = userMessage;
         header.responseMeta.nerdDetail = nerdDetail;
-        synchronized (messagesFromMe) {
-            messagesFromMe.add(new MessageFromMe(header, data, null, null, internalRequestId));
-        }
+        if (cacheMillis > 0)
+            header.responseMeta.cacheMillis = cacheMillis;
+        ProcessorShard shard = internalRequestId == null ? shards.get(0) : getShard(internalRequestId);
+        shard.acceptMessageFromMe(header, data, null, null, internalRequestId, 0);
     }
 
-    @Override
-    public void run() {
-        long lastStatsReportTimeMillis = System.currentTimeMillis();
-
-        while (!die.get()) {
-            boolean activity = false;
-            
-            int requestsToMeBacklog = getRequestsToMeBacklog();
-            if (requestsToMeBacklog > config.threads) {
-                perMinuteStats.backPressureApplied = true;
-                boolean wasPaused = harness.getServiceInfoEmitter().pause();
-                if (!wasPaused)
-                    logger.info("Applying back pressure");
-            } else {
-                boolean wasPaused = harness.getServiceInfoEmitter().unpause();
-                if (wasPaused)
-                    logger.info("Removing back pressure");
-            }
+    /**
+     * Drops a request to me that was not processed since its deadline passed while it waited.
+     */
+    void abandonRequestToMe(Long internalRequestId) {
+        perMinuteStats.requestsDroppedPastDeadline.incrementAndGet();
+        if (internalRequestId != null)
+            getShard(internalRequestId).acceptMessageFromMe(null, null, null, null, internalRequestId, 0);
+    }
 
-            while (true) {
-                MessageFromMe messageFromMe = null;
-                synchronized (messagesFromMe) {
-                    messageFromMe = messagesFromMe.poll();
-                }
-                if (messageFromMe == null)
-                    break;
-                activity = true;
-                MessageHeader header = messageFromMe.header;
-                if (header.responseMeta != null) {
-                    // response from me
-                    RequestToMeExpectingResponse requestToMe = requestsToMeByInternalRequestId.remove(messageFromMe.internalRequestId);
-                    if (requestToMe == null) {
-                        logger.warn("My response has no or expired request: response=" + Util.jsonStringFromObject(header));
-                    } else {
-                        perMinuteStats.responsesSent++;
-                        header.serviceNameTo = requestToMe.header.serviceNameFrom;
-                        header.id = requestToMe.header.id;
-                        boolean success = harness.getServiceUdp().send(header, messageFromMe.data, requestToMe.serviceAddressFrom, requestToMe.servicePortFrom);
-                        if (!success)
-                            perMinuteStats.failedResponses.incrementAndGet();
-                    }
-                } else {
-                    // request from me
-                    perMinuteStats.requestsSent++;
-                    if (header.id != null) {
-                        // request from me expecting a response
-                        requestsFromMeByRequestId.put(header.id, new RequestFromMeExpectingResponse(header, messageFromMe.responseFuture));
-                        expiringRequestsFromMe.add(new ExpiringId(header.id, messageFromMe.serviceTo.timeoutMillis));
-                    }
-                    boolean success = harness.getServiceUdp().send(header, messageFromMe.data, messageFromMe.serviceTo.address, messageFromMe.serviceTo.port);
-                    if (!success)
-                        perMinuteStats.failedRequests.incrementAndGet();
-                }
-            }
+    // Called from the shards with responses marked cacheable.
+    void cacheResponse(RequestKey requestKey, ResponseFuture.Response response, int cacheMillis) {
+        if (responseCache != null)
+            responseCache.put(requestKey.copy(), response, response.data == null ? 0 : response.data.length, cacheMillis);
+    }
 
-            while (true) {
-                MessageToMe messageToMe = null;
-                synchronized (messagesToMe) {
-                    messageToMe = messagesToMe.poll();
-                }
-                if (messageToMe == null)
-                    break;
-                activity = true;
-                MessageHeader header = messageToMe.header;
-                if (header.responseMeta != null) {
-                    // response to me
-                    RequestFromMeExpectingResponse requestFromMe = requestsFromMeByRequestId.remove(header.id);
-                    if (requestFromMe == null) {
-                        logger.warn("A response to me has no or expired request: response=" + Util.jsonStringFromObject(header));
-                    } else {
-                        perMinuteStats.responsesReceived++;
-                        ResponseFuture.Response response = new ResponseFuture.Response(false, header.serviceNameFrom, messageToMe.data, header.responseMeta.code, header.responseMeta.userMessage,
-                                header.responseMeta.nerdDetail);
-                        requestFromMe.responseFuture.set(response);
-                    }
-                } else {
-                    // request to me
-                    perMinuteStats.requestsReceived++;
-                    Long internalRequestId = requestIdGenerator.incrementAndGet();
-                    if (header.id != null) {
-                        // request to me expecting a response
-                        requestsToMeByInternalRequestId.put(internalRequestId, new RequestToMeExpectingResponse(header, messageToMe.serviceAddressFrom, messageToMe.servicePortFrom));
-                        expiringRequestsToMe.add(new ExpiringId(internalRequestId, config.timeoutMillis));
-                    }
-                    RequestToMeThread.Request request = new RequestToMeThread.Request(internalRequestId, header.serviceNameFrom, messageToMe.data);
-                    synchronized (requestsToMe) {
-                        requestsToMe.addLast(request);
-                        requestsToMe.notify();
-                    }
-                }
-            }
+    boolean isMemoizing() {
+        return memoCache != null;
+    }
 
-            while (true) {
-                ExpiringId expiringId = expiringRequestsFromMe.poll();
-                if (expiringId == null)
-                    break;
-                activity = true;
-                RequestFromMeExpectingResponse request = requestsFromMeByRequestId.remove(expiringId.id);
-                if (request != null) {
-                    perMinuteStats.responsesDroppedByOthers++;
-                    ResponseFuture.Response response = new ResponseFuture.Response(true, null, null, 0, null, null);
-                    request.responseFuture.set(response);
-                    logger.warn("A request from me was not responded to in time: timeoutMillis=" + expiringId.timeoutMillis + ": " + Util.jsonStringFromObject(request.header));
-                }
-            }
+    long getMemoGeneration() {
+        return memoGeneration.get();
+    }
 
-            while (true) {
-                ExpiringId expiringId = expiringRequestsToMe.poll();
-                if (expiringId == null)
-                    break;
-                activity = true;
-                RequestToMeExpectingResponse request = requestsToMeByInternalRequestId.remove(expiringId.id);
-                if (request != null) {
-                    perMinuteStats.responsesDroppedByMe++;
-                    logger.warn("A request to me was not responded to in time: timeoutMillis=" + expiringId.timeoutMillis + ": " + Util.jsonStringFromObject(request.header));
-                }
-            }
+    // Called from the shards for each request to me expecting a response, when memoizing.
+    MemoizedResponse getMemoizedResponse(RequestKey requestKey) {
+        return memoCache.get(requestKey);
+    }
 
-            long currentTimeMillis = System.currentTimeMillis();
-            if (currentTimeMillis - lastStatsReportTimeMillis >= ONE_MINUTE_MILLIS) {
-                lastStatsReportTimeMillis = currentTimeMillis;
-                String stats = perMinuteStats.getAndReset();
-                lastPerMinuteStats.set(stats);
-                logger.debug("Stats=" + stats);
-            }
+    /**
+     * Called from the shards with my response to a request looked up in the memo cache. Only a successful response - no
+     * code or code 0 - is memoized, as a failure may be passing. Dropped if the memo cache was invalidated since, as the
+     * response may predate the invalidation.
+     */
+    void memoizeResponse(RequestKey requestKey, long generation, MessageHeader.ResponseMeta responseMeta, byte[] data) {
+        if (responseMeta.code != null && responseMeta.code != 0)
+            return;
+        if (generation != memoGeneration.get())
+            return;
+        byte[] dataCopy = data == null ? null : data.clone(); // my microservice may reuse its array
+        memoCache.put(requestKey, new MemoizedResponse(responseMeta, dataCopy), data == null ? 0 : data.length, config.memoMillis);
+        if (generation != memoGeneration.get())
+            memoCache.remove(requestKey);
+    }
 
-            if (!activity)
-                Util.sleepMillis(10); // very responsive but not burdensome during inactivity
-        }
+    public void invalidateMemoizedResponse(byte[] data) {
+        if (memoCache == null)
+            return;
+        memoGeneration.incrementAndGet();
+        memoCache.remove(new RequestKey(config.serviceName, data));
     }
 
-    private int getRequestsToMeBacklog() {
-        synchronized (requestsToMe) {
-            return requestsToMe.size();
-        }
+    public void invalidateMemoizedResponses() {
+        if (memoCache == null)
+            return;
+        memoGeneration.incrementAndGet();
+        memoCache.clear();
     }
 
-    private class MessageFromMe {
-        private final MessageHeader header;
-        private final byte[] data;
-        private final ResponseFuture responseFuture;
-        private final ServiceInfo serviceTo;
-        private final Long internalRequestId;
+    // Called from the shards as each request from me expecting a response is answered, rejected, times out or fails to send.
+    void reportResponse(String serviceNameTo, ServiceInfo serviceTo, long roundTripNanos, boolean failed) {
+        circuitBreakers.record(serviceTo, failed);
+        try {
+            harness.getServiceFinder().reportResponse(serviceNameTo, serviceTo, roundTripNanos, failed);
+        } catch (Throwable th) {
+            logger.error("The pluggable service finder threw an exception in reportResponse()", th);
+        }
+    }
 
-        private MessageFromMe(MessageHeader header, byte[] data, ResponseFuture responseFuture, ServiceInfo serviceTo, Long internalRequestId) {
-            this.header = header;
-            this.data = data;
-            this.responseFuture = responseFuture;
-            this.serviceTo = serviceTo;
-            this.internalRequestId = internalRequestId;
+    /**
+     * Called from the shards to find an instance other than the one a hedged or retried request went to.
+     *
+     * @return null if no other available instance turns up
+     */
+    ServiceInfo findOtherService(String serviceNameTo, ServiceInfo serviceTo) {
+        ServiceInfo service;
+        try {
+            service = harness.getServiceFinder().findOtherService(serviceNameTo, serviceTo);
+        } catch (Throwable th) {
+            logger.error("The pluggable service finder threw an exception in findOtherService()", th);
+            return null;
         }
+        if (service == null || service.elapsedMillis > config.serviceUnavailableMillis || circuitBreakers.tryAcquire(service) == CircuitBreakers.DENIED)
+            return null;
+        return service;
     }
 
-    private class MessageToMe {
-        private final MessageHeader header;
-        private final byte[] data;
-        private final InetAddress serviceAddressFrom;
-        private final int servicePortFrom;
+    void requestToMeStarted() {
+        requestsToMeRunning.incrementAndGet();
+    }
 
-        private MessageToMe(MessageHeader header, byte[] data, InetAddress serviceAddressFrom, int servicePortFrom) {
-            this.header = header;
-            this.data = data;
-            this.serviceAddressFrom = serviceAddressFrom;
-            this.servicePortFrom = servicePortFrom;
-        }
+    void requestToMeReturned() {
+        requestsToMeRunning.decrementAndGet();
     }
 
-    private class RequestFromMeExpectingResponse {
-        private final MessageHeader header;
-        private final ResponseFuture responseFuture;
+    void asyncRequestStarted() {
+        asyncRequestsInFlight.incrementAndGet();
+    }
 
-        private RequestFromMeExpectingResponse(MessageHeader header, ResponseFuture responseFuture) {
-            this.header = header;
-            this.responseFuture = responseFuture;
-        }
+    void asyncRequestFinished() {
+        asyncRequestsInFlight.decrementAndGet();
     }
 
-    private class RequestToMeExpectingResponse {
-        private final MessageHeader header;
-        private final InetAddress serviceAddressFrom;
-        private final int servicePortFrom;
+    void dispatchRequestToMe(RequestToMeThread.Request request) {
+        requestToMeDispatcher.dispatch(request);
+    }
 
-        private RequestToMeExpectingResponse(MessageHeader header, InetAddress serviceAddressFrom, int servicePortFrom) {
-            this.header = header;
-            this.serviceAddressFrom = serviceAddressFrom;
-            this.servicePortFrom = servicePortFrom;
+    // Called from shard 0 on each pass.
+    // Back pressure is the load advertised with my service info - or, if the service finder does not take the load,
+    // my service info not being advertised - so crossing into or out of it is advertised at once rather than waiting
+    // for the next interval.
+    void checkBackPressure() {
+        int requestsToMeBacklog = getRequestsToMeBacklog();
+        boolean wasBackPressure = backPressure;
+        backPressure = requestsToMeBacklog > config.threads || asyncRequestsInFlight.get() > config.asyncRequests;
+        if (backPressure)
+            perMinuteStats.backPressureApplied = true;
+        if (backPressure != wasBackPressure) {
+            logger.info(backPressure ? "Applying back pressure" : "Removing back pressure");
+            harness.getServiceInfoEmitter().emitNow();
         }
     }
 
-    private class ExpiringId implements Delayed {
-        private final long id;
-        private final long timeoutMillis;
-        private final long expireTimeMillis;
+    public boolean isApplyingBackPressure() {
+        return backPressure;
+    }
 
-        private ExpiringId(long id, long timeoutMillis) {
-            this.id = id;
-            this.timeoutMillis = timeoutMillis;
-            this.expireTimeMillis = System.currentTimeMillis() + timeoutMillis;
-        }
+    /**
+     * The load advertised to other microservices so they favor less loaded instances. It is the percent of my threads
+     * busy or waited for plus the recent processing time as a percent of my timeoutMillis - 0 when idle and quick,
+     * 100 when every thread is busy, higher as requests queue up or slow down. If async requests are used, the
+     * percent of noqms.asyncRequests in flight counts when higher than that of the threads. While back pressure is
+     * applied it is ServiceInfo.OVERLOADED_LOAD, which it otherwise stays below.
+     */
+    public int getLoad() {
+        if (backPressure)
+            return ServiceInfo.OVERLOADED_LOAD;
+        long occupancy = 100L * (requestsToMeRunning.get() + getRequestsToMeBacklog()) / Math.max(1, config.threads);
+        if (config.asyncRequests > 0)
+            occupancy = Math.max(occupancy, 100L * asyncRequestsInFlight.get() / config.asyncRequests);
+        long latency = 100L * (processRequestMillisAverage.get() >> AVERAGE_SHIFT) / Math.max(1, config.timeoutMillis);
+        return (int)Math.min(ServiceInfo.OVERLOADED_LOAD - 1, occupancy + latency);
+    }
 
-        @Override
-        public int compareTo(Delayed o) {
-            ExpiringId other = (ExpiringId)o;
-            if (expireTimeMillis < other.expireTimeMillis)
-                return -1;
-            if (expireTimeMillis > other.expireTimeMillis)
-                return 1;
-            return 0;
+    // Called from shard 0 on each pass.
+    void checkStats() {
+        long currentTimeMillis = System.currentTimeMillis();
+        if (currentTimeMillis - lastStatsReportTimeMillis >= ONE_MINUTE_MILLIS) {
+            lastStatsReportTimeMillis = currentTimeMillis;
+            String stats = perMinuteStats.getAndReset();
+            lastPerMinuteStats.set(stats);
+            logger.debug("Stats=" + stats);
         }
+    }
 
-        @Override
-        public long getDelay(TimeUnit unit) {
-            long millisLeft = expireTimeMillis - System.currentTimeMillis();
-            return unit.convert(millisLeft, TimeUnit.MILLISECONDS);
-        }
+    private ProcessorShard getShard(long id) {
+        return shards.get((int)Math.floorMod(id, (long)shards.size()));
+    }
+
+    private ProcessorShard nextShard() {
+        if (shards.size() == 1)
+            return shards.get(0);
+        return shards.get(Math.floorMod(nextShardIndex.getAndIncrement(), shards.size()));
+    }
 
+    int getRequestsToMeBacklog() {
+        return requestToMeDispatcher.getBacklog();
     }
 
     public void processRequestMillis(int millis) {
         perMinuteStats.processRequestMillis(millis);
+        long sample = (long)millis << AVERAGE_SHIFT;
+        processRequestMillisAverage.getAndUpdate(average -> average + (sample - average) / AVERAGE_WEIGHT);
+    }
+
+    /**
+     * A response of my microservice kept to answer identical requests.
+     */
+    static class MemoizedResponse {
+        final MessageHeader.ResponseMeta responseMeta;
+        final byte[] data;
+
+        MemoizedResponse(MessageHeader.ResponseMeta responseMeta, byte[] data) {
+            this.responseMeta = responseMeta;
+            this.data = data;
+        }
     }
 
     @SuppressWarnings("unused")
@@ -411,12 +435,32 @@ public class Processor extends Thread {
         private int responsesReceived;
         private int responsesDroppedByMe;
         private int responsesDroppedByOthers;
+        private int requestsRejected;
+        private int rejectionsReceived;
+        private int hedgesSent;
+        private int hedgesWon;
+        private int hedgesOverBudget;
+        private int retriesSent;
+        private int retriesWon;
+        private int retriesOverBudget;
+        private int requestsJoined;
         private boolean backPressureApplied;
         private int processRequestLowMillis;
         private int processRequestHighMillis;
         private final AtomicInteger failedRequests = new AtomicInteger();
         private final AtomicInteger failedResponses = new AtomicInteger();
         private int requestsToMeCurrentBacklog;
+        private int processorThreads;
+        private int asyncRequestsCurrentInFlight;
+        private final AtomicInteger requestsDroppedPastDeadline = new AtomicInteger();
+        private final AtomicInteger requestsNotSentPastDeadline = new AtomicInteger();
+        private List<ServiceUdp.ReceiveStats> receiveThreads;
+        private FragmentReassembler.FragmentStats fragments;
+        private ServiceUdp.CompressionStats compression;
+        private Coalescer.CoalesceStats coalescing;
+        private CircuitBreakers.BreakerStats circuitBreakers;
+        private ResponseCache.CacheStats responseCache;
+        private ResponseCache.CacheStats memoCache;
 
         private void clear() {
             requestsSent = 0;
@@ -425,15 +469,58 @@ public class Processor extends Thread {
             responsesReceived = 0;
             responsesDroppedByMe = 0;
             responsesDroppedByOthers = 0;
+            requestsRejected = 0;
+            rejectionsReceived = 0;
+            hedgesSent = 0;
+            hedgesWon = 0;
+            hedgesOverBudget = 0;
+            retriesSent = 0;
+            retriesWon = 0;
+            retriesOverBudget = 0;
+            requestsJoined = 0;
             backPressureApplied = false;
             processRequestLowMillis = 0;
             processRequestHighMillis = 0;
             failedRequests.set(0);
             failedResponses.set(0);
+            requestsDroppedPastDeadline.set(0);
+            requestsNotSentPastDeadline.set(0);
         }
 
         private synchronized String getAndReset() {
+            for (ProcessorShard shard : shards) {
+                ProcessorShard.ShardStats shardStats = shard.getStats();
+                requestsSent += shardStats.requestsSent.getAndSet(0);
+                requestsReceived += shardStats.requestsReceived.getAndSet(0);
+                responsesSent += shardStats.responsesSent.getAndSet(0);
+                responsesReceived += shardStats.responsesReceived.getAndSet(0);
+                responsesDroppedByMe += shardStats.responsesDroppedByMe.getAndSet(0);
+                responsesDroppedByOthers += shardStats.responsesDroppedByOthers.getAndSet(0);
+                requestsRejected += shardStats.requestsRejected.getAndSet(0);
+                rejectionsReceived += shardStats.rejectionsReceived.getAndSet(0);
+                hedgesSent += shardStats.hedgesSent.getAndSet(0);
+                hedgesWon += shardStats.hedgesWon.getAndSet(0);
+                hedgesOverBudget += shardStats.hedgesOverBudget.getAndSet(0);
+                retriesSent += shardStats.retriesSent.getAndSet(0);
+                retriesWon += shardStats.retriesWon.getAndSet(0);
+                retriesOverBudget += shardStats.retriesOverBudget.getAndSet(0);
+                requestsJoined += shardStats.requestsJoined.getAndSet(0);
+                failedRequests.addAndGet(shardStats.failedRequests.getAndSet(0));
+                failedResponses.addAndGet(shardStats.failedResponses.getAndSet(0));
+                requestsDroppedPastDeadline.addAndGet(shardStats.requestsDroppedPastDeadline.getAndSet(0));
+            }
+            processorThreads = shards.size();
+            asyncRequestsCurrentInFlight = asyncRequestsInFlight.get();
             requestsToMeCurrentBacklog = getRequestsToMeBacklog();
+            receiveThreads = harness.getServiceUdp().getAndResetReceiveStats();
+            fragments = harness.getServiceUdp().getAndResetFragmentStats();
+            compression = harness.getServiceUdp().getAndResetCompressionStats();
+            coalescing = harness.getServiceUdp().getAndResetCoalesceStats();
+            circuitBreakers = Processor.this.circuitBreakers.getAndResetStats();
+            if (Processor.this.responseCache != null)
+                responseCache = Processor.this.responseCache.getAndResetStats();
+            if (Processor.this.memoCache != null)
+                memoCache = Processor.this.memoCache.getAndResetStats();
             String ret = Util.jsonStringFromObject(this);
             clear();
             return ret;
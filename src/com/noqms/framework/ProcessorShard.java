@@ -0,0 +1,713 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.LogListener;
+import com.noqms.ResponseFuture;
+import com.noqms.ServiceInfo;
+
+/**
+ * One processor event loop thread. Each shard owns the requests whose ids it generates - an id modulo the number of
+ * shards is the owning shard - so responses are routed straight to the shard holding the request, and the in-flight
+ * tables and timers are never shared.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class ProcessorShard extends Thread {
+    public static final int OPTION_HEDGED = 0x01; // copied to another instance if unanswered past the usual response time
+    public static final int OPTION_RETRIED = 0x02; // copied to another instance if unanswered in its share of the timeout or rejected
+    public static final int OPTION_SINGLE_FLIGHT = 0x04; // joins an identical request already in flight rather than being sent
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // bounds back pressure and stats checks while idle
+    private static final int LATENCY_SAMPLES = 256; // recent round trips kept per microservice for the hedge delay
+    private static final int LATENCY_SAMPLES_MIN = 32; // no hedging until this many are in
+    private static final int LATENCY_RECOMPUTE_INTERVAL = 32; // the percentile is recomputed after this many more
+    private static final double HEDGE_TOKENS_MAX = 10; // hedges that may go out in a burst
+    private static final double RETRY_TOKENS_MAX = 10; // retries to one microservice that may go out in a burst
+
+    private final Processor processor;
+    private final Config config;
+    private final LogListener logger;
+    private final ServiceUdp.Sender sender;
+    private final int index;
+    private final int shardCount;
+    private final MpscQueue<MessageToMe> messagesToMe = new MpscQueue<>();
+    private final MpscQueue<MessageFromMe> messagesFromMe = new MpscQueue<>();
+    private final AtomicLong requestIdGenerator = new AtomicLong();
+    private final LongObjectMap<RequestFromMeExpectingResponse> requestsFromMeByRequestId = new LongObjectMap<>(1024); // this thread only
+    private final LongObjectMap<RequestToMeExpectingResponse> requestsToMeByInternalRequestId = new LongObjectMap<>(1024); // this thread only
+    private final TimingWheel<RequestFromMeExpectingResponse> expiringRequestsFromMe = new TimingWheel<>();
+    private final TimingWheel<RequestToMeExpectingResponse> expiringRequestsToMe = new TimingWheel<>();
+    private final TimingWheel<FollowUpTimer> followUpTimers = new TimingWheel<>();
+    private final Map<String, Destination> destinationsByServiceName = new HashMap<>(); // this thread only
+    private final Map<RequestKey, RequestFromMeExpectingResponse> singleFlightRequests = new HashMap<>(); // this thread only
+    private final int[] latencySortScratch = new int[LATENCY_SAMPLES];
+    private double hedgeTokens = HEDGE_TOKENS_MAX; // each hedged request earns noqms.hedgeBudgetPercent of one
+    private final ShardStats stats = new ShardStats();
+    private final AtomicBoolean die = new AtomicBoolean();
+    private volatile boolean parked;
+
+    public ProcessorShard(Harness harness, Processor processor, int index) {
+        this.processor = processor;
+        this.config = harness.getConfig();
+        this.logger = harness.getLogger();
+        this.sender = harness.getServiceUdp().getSender(index);
+        this.index = index;
+        this.shardCount = config.processorThreads;
+        setName("noqms-processor-" + index);
+        setDaemon(true);
+    }
+
+    public void die() {
+        die.set(true);
+        LockSupport.unpark(this);
+    }
+
+    ShardStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return a new id owned by this shard
+     */
+    public long nextRequestId() {
+        return requestIdGenerator.incrementAndGet() * shardCount + index;
+    }
+
+    public void acceptMessageToMe(MessageHeader header, ByteBuffer data, BufferPool bufferPool, InetAddress serviceAddressFrom, int servicePortFrom) {
+        messagesToMe.offer(new MessageToMe(header, data, bufferPool, serviceAddressFrom, servicePortFrom, System.nanoTime()));
+        wakeUp();
+    }
+
+    /**
+     * @param header            null to abandon the request to me with the internalRequestId without responding
+     * @param responseFuture    non null for a request expecting a response, whose header id must come from nextRequestId()
+     * @param serviceTo         non null for a request
+     * @param internalRequestId non null for a response, owned by this shard
+     * @param options           OPTION_ flags for a request expecting a response, else 0
+     */
+    public void acceptMessageFromMe(MessageHeader header, byte[] data, ResponseFuture responseFuture, ServiceInfo serviceTo, Long internalRequestId,
+            int options) {
+        acceptMessageFromMe(header, data, responseFuture, serviceTo, internalRequestId, options, null);
+    }
+
+    /**
+     * Same as above for a request expecting a response with the key for single flight and response caching, if used.
+     * With OPTION_SINGLE_FLIGHT the request must go to the shard requestKey.getShardIndex() gives.
+     */
+    public void acceptMessageFromMe(MessageHeader header, byte[] data, ResponseFuture responseFuture, ServiceInfo serviceTo, Long internalRequestId,
+            int options, RequestKey requestKey) {
+        messagesFromMe.offer(new MessageFromMe(header, data, responseFuture, serviceTo, internalRequestId, options, requestKey));
+        wakeUp();
+    }
+
+    @Override
+    public void run() {
+        while (!die.get()) {
+            boolean activity = false;
+
+            if (index == 0)
+                processor.checkBackPressure();
+
+            while (true) {
+                MessageFromMe messageFromMe = messagesFromMe.poll();
+                if (messageFromMe == null)
+                    break;
+                activity = true;
+                MessageHeader header = messageFromMe.header;
+                if (header == null) {
+                    // abandoned request to me
+                    RequestToMeExpectingResponse requestToMe = requestsToMeByInternalRequestId.remove(messageFromMe.internalRequestId);
+                    if (requestToMe != null)
+                        expiringRequestsToMe.cancel(requestToMe);
+                } else if (header.responseMeta != null) {
+                    // response from me
+                    RequestToMeExpectingResponse requestToMe = messageFromMe.internalRequestId == null ? null : requestsToMeByInternalRequestId.remove(messageFromMe.internalRequestId);
+                    if (requestToMe == null) {
+                        logger.warn("My response has no or expired request: response=" + Util.jsonStringFromObject(header));
+                    } else {
+                        expiringRequestsToMe.cancel(requestToMe);
+                        stats.responsesSent.incrementAndGet();
+                        header.serviceNameTo = requestToMe.header.serviceNameFrom;
+                        header.id = requestToMe.header.id;
+                        if (requestToMe.memoKey != null)
+                            processor.memoizeResponse(requestToMe.memoKey, requestToMe.memoGeneration, header.responseMeta, messageFromMe.data);
+                        boolean success = sender.send(header, messageFromMe.data, requestToMe.header.compression, requestToMe.serviceAddressFrom, requestToMe.servicePortFrom);
+                        if (!success)
+                            stats.failedResponses.incrementAndGet();
+                    }
+                } else {
+                    // request from me
+                    if ((messageFromMe.options & OPTION_SINGLE_FLIGHT) != 0 && joinSingleFlight(messageFromMe))
+                        continue;
+                    stats.requestsSent.incrementAndGet();
+                    RequestFromMeExpectingResponse requestFromMe = null;
+                    if (header.id != null) {
+                        // request from me expecting a response
+                        requestFromMe = new RequestFromMeExpectingResponse(header, messageFromMe.responseFuture, messageFromMe.serviceTo, header.deadlineMillis,
+                                System.nanoTime(), messageFromMe.options);
+                        requestsFromMeByRequestId.put(header.id, requestFromMe);
+                        expiringRequestsFromMe.add(requestFromMe, requestFromMe.timeoutMillis);
+                        requestFromMe.requestKey = messageFromMe.requestKey;
+                        if ((messageFromMe.options & OPTION_SINGLE_FLIGHT) != 0)
+                            singleFlightRequests.putIfAbsent(requestFromMe.requestKey, requestFromMe); // one that would not join stays untracked
+                    }
+                    boolean success = sender.send(header, messageFromMe.data, messageFromMe.serviceTo.compression, messageFromMe.serviceTo.address, messageFromMe.serviceTo.port);
+                    if (!success) {
+                        stats.failedRequests.incrementAndGet();
+                        if (requestFromMe != null)
+                            sendFailed(requestFromMe, header.id, requestFromMe.serviceTo, requestFromMe.sentNanos);
+                    }
+                    if (requestFromMe != null && (requestFromMe.options & (OPTION_HEDGED | OPTION_RETRIED)) != 0)
+                        scheduleFollowUp(requestFromMe, messageFromMe.data, success);
+                }
+            }
+
+            while (true) {
+                MessageToMe messageToMe = messagesToMe.poll();
+                if (messageToMe == null)
+                    break;
+                activity = true;
+                MessageHeader header = messageToMe.header;
+                if (header.responseMeta != null) {
+                    // response to me
+                    RequestFromMeExpectingResponse requestFromMe = header.id == null ? null : requestsFromMeByRequestId.remove(header.id);
+                    byte[] data = Util.bytesFromBuffer(messageToMe.data);
+                    if (messageToMe.bufferPool != null)
+                        messageToMe.bufferPool.release(messageToMe.data);
+                    if (requestFromMe == null) {
+                        logger.warn("A response to me has no or expired request: response=" + Util.jsonStringFromObject(header));
+                    } else {
+                        boolean rejected = Boolean.TRUE.equals(header.responseMeta.rejected);
+                        Copy copy = findCopy(requestFromMe, header.id);
+                        long roundTripNanos = System.nanoTime() - (copy == null ? requestFromMe.sentNanos : copy.sentNanos);
+                        processor.reportResponse(requestFromMe.header.serviceNameTo, copy == null ? requestFromMe.serviceTo : copy.serviceTo, roundTripNanos, rejected);
+                        if (!rejected)
+                            addLatencySample(requestFromMe.header.serviceNameTo, roundTripNanos);
+                        if (rejected && !requestFromMe.completed && (requestFromMe.options & OPTION_RETRIED) != 0)
+                            sendCopy(requestFromMe);
+                        // A request with copies stays in the in-flight table until every copy answers or it expires.
+                        boolean otherPending = isOtherPending(requestFromMe, header.id);
+                        if (!otherPending)
+                            expiringRequestsFromMe.cancel(requestFromMe);
+                        if (requestFromMe.completed)
+                            continue; // a slower copy
+                        if (rejected)
+                            stats.rejectionsReceived.incrementAndGet();
+                        ResponseFuture.Response response = new ResponseFuture.Response(false, rejected, header.serviceNameFrom, data, header.responseMeta.code,
+                                header.responseMeta.userMessage, header.responseMeta.nerdDetail);
+                        if (rejected && otherPending) {
+                            requestFromMe.rejectedResponse = response; // another copy may yet be answered
+                            continue;
+                        }
+                        Integer cacheMillis = header.responseMeta.cacheMillis;
+                        if (!rejected && cacheMillis != null && cacheMillis > 0 && requestFromMe.requestKey != null)
+                            processor.cacheResponse(requestFromMe.requestKey, response, cacheMillis);
+                        complete(requestFromMe, response);
+                        if (copy != null && !rejected) {
+                            if ((requestFromMe.options & OPTION_HEDGED) != 0)
+                                stats.hedgesWon.incrementAndGet();
+                            else
+                                stats.retriesWon.incrementAndGet();
+                        }
+                    }
+                } else {
+                    // request to me
+                    stats.requestsReceived.incrementAndGet();
+                    long timeoutMillis = config.timeoutMillis;
+                    Long deadlineNanos = null;
+                    if (header.deadlineMillis != null) {
+                        // the requester's clock starts at sending, which is counted from receipt here
+                        deadlineNanos = messageToMe.receivedNanos + TimeUnit.MILLISECONDS.toNanos(header.deadlineMillis);
+                        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                        if (remainingMillis <= 0) {
+                            stats.requestsDroppedPastDeadline.incrementAndGet();
+                            if (messageToMe.bufferPool != null)
+                                messageToMe.bufferPool.release(messageToMe.data);
+                            continue;
+                        }
+                        timeoutMillis = Math.min(timeoutMillis, remainingMillis);
+                    }
+                    RequestKey memoKey = null;
+                    long memoGeneration = 0;
+                    if (header.id != null && processor.isMemoizing()) {
+                        memoGeneration = processor.getMemoGeneration();
+                        RequestKey lookupKey = new RequestKey(config.serviceName, messageToMe.data);
+                        Processor.MemoizedResponse memoized = processor.getMemoizedResponse(lookupKey);
+                        if (memoized != null) {
+                            respondMemoized(messageToMe, memoized);
+                            continue;
+                        }
+                        memoKey = lookupKey.copy(); // my microservice may change or release the buffer before responding
+                    }
+                    if (config.maxBacklog > 0 && processor.getRequestsToMeBacklog() >= config.maxBacklog) {
+                        reject(messageToMe);
+                        continue;
+                    }
+                    long internalRequestId = nextRequestId();
+                    if (header.id != null) {
+                        // request to me expecting a response
+                        RequestToMeExpectingResponse requestToMe = new RequestToMeExpectingResponse(internalRequestId, header, messageToMe.serviceAddressFrom, messageToMe.servicePortFrom,
+                                timeoutMillis);
+                        requestToMe.memoKey = memoKey;
+                        requestToMe.memoGeneration = memoGeneration;
+                        requestsToMeByInternalRequestId.put(internalRequestId, requestToMe);
+                        expiringRequestsToMe.add(requestToMe, requestToMe.timeoutMillis);
+                    }
+                    processor.dispatchRequestToMe(new RequestToMeThread.Request(internalRequestId, header.serviceNameFrom, messageToMe.data, messageToMe.bufferPool, deadlineNanos));
+                }
+            }
+
+            // Entries are cancelled when the response arrives, so whatever expires is still in flight - or was completed
+            // by one copy while another never answered.
+            while (true) {
+                RequestFromMeExpectingResponse request = expiringRequestsFromMe.poll();
+                if (request == null)
+                    break;
+                activity = true;
+                if (request.followUpTimer != null)
+                    followUpTimers.cancel(request.followUpTimer);
+                long nowNanos = System.nanoTime();
+                if (requestsFromMeByRequestId.remove(request.header.id) != null)
+                    processor.reportResponse(request.header.serviceNameTo, request.serviceTo, nowNanos - request.sentNanos, true);
+                for (int ix = 0; ix < request.copyCount; ix++) {
+                    Copy copy = request.copies[ix];
+                    if (requestsFromMeByRequestId.remove(copy.id) != null)
+                        processor.reportResponse(request.header.serviceNameTo, copy.serviceTo, nowNanos - copy.sentNanos, true);
+                }
+                if (request.completed)
+                    continue;
+                if (request.rejectedResponse != null) {
+                    complete(request, request.rejectedResponse);
+                    continue;
+                }
+                stats.responsesDroppedByOthers.incrementAndGet();
+                request.completed = true;
+                request.data = null;
+                ResponseFuture.Response response = new ResponseFuture.Response(true, null, null, 0, null, null);
+                setResponse(request, response);
+                logger.warn("A request from me was not responded to in time: timeoutMillis=" + request.timeoutMillis + ": " + Util.jsonStringFromObject(request.header));
+            }
+
+            while (true) {
+                FollowUpTimer followUpTimer = followUpTimers.poll();
+                if (followUpTimer == null)
+                    break;
+                activity = true;
+                followUp(followUpTimer.request);
+            }
+
+            while (true) {
+                RequestToMeExpectingResponse request = expiringRequestsToMe.poll();
+                if (request == null)
+                    break;
+                activity = true;
+                requestsToMeByInternalRequestId.remove(request.internalRequestId);
+                stats.responsesDroppedByMe.incrementAndGet();
+                logger.warn("A request to me was not responded to in time: timeoutMillis=" + request.timeoutMillis + ": " + Util.jsonStringFromObject(request.header));
+            }
+
+            long coalescedDueNanos = sender.flushCoalesced();
+
+            if (index == 0)
+                processor.checkStats();
+
+            if (!activity) {
+                long parkNanos = Math.min(MAX_PARK_NANOS, coalescedDueNanos);
+                parkNanos = Math.min(parkNanos, expiringRequestsFromMe.getNanosUntilNextExpiry());
+                parkNanos = Math.min(parkNanos, expiringRequestsToMe.getNanosUntilNextExpiry());
+                parkNanos = Math.min(parkNanos, followUpTimers.getNanosUntilNextExpiry());
+                // Producers unpark only when they see this flag, so the queues are checked again after setting it.
+                parked = true;
+                if (messagesFromMe.isEmpty() && messagesToMe.isEmpty() && !die.get())
+                    LockSupport.parkNanos(this, parkNanos);
+                parked = false;
+            }
+        }
+    }
+
+    private void complete(RequestFromMeExpectingResponse requestFromMe, ResponseFuture.Response response) {
+        requestFromMe.completed = true;
+        requestFromMe.data = null;
+        if (requestFromMe.followUpTimer != null)
+            followUpTimers.cancel(requestFromMe.followUpTimer);
+        stats.responsesReceived.incrementAndGet();
+        setResponse(requestFromMe, response);
+    }
+
+    // Sets the response future of the request and of any identical requests that joined it.
+    private void setResponse(RequestFromMeExpectingResponse requestFromMe, ResponseFuture.Response response) {
+        requestFromMe.responseFuture.set(response);
+        if ((requestFromMe.options & OPTION_SINGLE_FLIGHT) == 0)
+            return;
+        singleFlightRequests.remove(requestFromMe.requestKey, requestFromMe);
+        if (requestFromMe.joined != null) {
+            for (ResponseFuture responseFuture : requestFromMe.joined)
+                responseFuture.set(response);
+            requestFromMe.joined = null;
+        }
+    }
+
+    /**
+     * Attaches a single flight request to an identical one in flight that will be answered within its own timeout.
+     *
+     * @return true if joined, so the request is not to be sent
+     */
+    private boolean joinSingleFlight(MessageFromMe messageFromMe) {
+        RequestFromMeExpectingResponse requestFromMe = singleFlightRequests.get(messageFromMe.requestKey);
+        if (requestFromMe == null)
+            return false;
+        long remainingMillis = requestFromMe.timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestFromMe.sentNanos);
+        if (remainingMillis > messageFromMe.header.deadlineMillis)
+            return false;
+        if (requestFromMe.joined == null)
+            requestFromMe.joined = new ArrayList<>(4);
+        requestFromMe.joined.add(messageFromMe.responseFuture);
+        stats.requestsJoined.incrementAndGet();
+        return true;
+    }
+
+    // null for the original request
+    private Copy findCopy(RequestFromMeExpectingResponse requestFromMe, long id) {
+        for (int ix = 0; ix < requestFromMe.copyCount; ix++) {
+            if (requestFromMe.copies[ix].id == id)
+                return requestFromMe.copies[ix];
+        }
+        return null;
+    }
+
+    private boolean isOtherPending(RequestFromMeExpectingResponse requestFromMe, long id) {
+        if (requestFromMe.header.id != id && requestsFromMeByRequestId.get(requestFromMe.header.id) == requestFromMe)
+            return true;
+        for (int ix = 0; ix < requestFromMe.copyCount; ix++) {
+            long copyId = requestFromMe.copies[ix].id;
+            if (copyId != id && requestsFromMeByRequestId.get(copyId) == requestFromMe)
+                return true;
+        }
+        return false;
+    }
+
+    private Destination getDestination(String serviceNameTo) {
+        Destination destination = destinationsByServiceName.get(serviceNameTo);
+        if (destination == null) {
+            destination = new Destination();
+            destinationsByServiceName.put(serviceNameTo, destination);
+        }
+        return destination;
+    }
+
+    // A hedged request is copied once the usual response time for its microservice has passed. A retried request is
+    // copied each time its share of the timeout passes, or right away if sending failed.
+    private void scheduleFollowUp(RequestFromMeExpectingResponse requestFromMe, byte[] data, boolean sent) {
+        Destination destination = getDestination(requestFromMe.header.serviceNameTo);
+        long delayMillis;
+        if ((requestFromMe.options & OPTION_HEDGED) != 0) {
+            hedgeTokens = Math.min(HEDGE_TOKENS_MAX, hedgeTokens + config.hedgeBudgetPercent / 100.0);
+            delayMillis = destination.hedgeDelayMillis;
+            if (delayMillis <= 0)
+                return;
+        } else {
+            destination.retryTokens = Math.min(RETRY_TOKENS_MAX, destination.retryTokens + config.retryBudgetPercent / 100.0);
+            delayMillis = sent ? getRetryIntervalMillis(requestFromMe) : 0;
+        }
+        if (delayMillis >= requestFromMe.timeoutMillis)
+            return;
+        requestFromMe.data = data;
+        requestFromMe.followUpTimer = new FollowUpTimer(requestFromMe);
+        followUpTimers.add(requestFromMe.followUpTimer, delayMillis);
+    }
+
+    private long getRetryIntervalMillis(RequestFromMeExpectingResponse requestFromMe) {
+        return Math.max(1, requestFromMe.timeoutMillis / (config.retries + 1));
+    }
+
+    private void followUp(RequestFromMeExpectingResponse requestFromMe) {
+        if (requestFromMe.completed)
+            return;
+        sendCopy(requestFromMe);
+        if ((requestFromMe.options & OPTION_RETRIED) != 0 && requestFromMe.copyCount < config.retries)
+            followUpTimers.add(requestFromMe.followUpTimer, getRetryIntervalMillis(requestFromMe));
+    }
+
+    /**
+     * Copies a still unanswered request to another instance, within its remaining time and budget.
+     *
+     * @return true if a copy was sent
+     */
+    private boolean sendCopy(RequestFromMeExpectingResponse requestFromMe) {
+        boolean hedged = (requestFromMe.options & OPTION_HEDGED) != 0;
+        int maxCopies = hedged ? 1 : config.retries;
+        if (requestFromMe.copyCount >= maxCopies)
+            return false;
+        long nowNanos = System.nanoTime();
+        long remainingMillis = requestFromMe.timeoutMillis - TimeUnit.NANOSECONDS.toMillis(nowNanos - requestFromMe.sentNanos);
+        if (remainingMillis <= 0)
+            return false;
+        Destination destination = getDestination(requestFromMe.header.serviceNameTo);
+        if ((hedged ? hedgeTokens : destination.retryTokens) < 1) {
+            if (hedged)
+                stats.hedgesOverBudget.incrementAndGet();
+            else
+                stats.retriesOverBudget.incrementAndGet();
+            return false;
+        }
+        ServiceInfo lastServiceTo = requestFromMe.copyCount == 0 ? requestFromMe.serviceTo : requestFromMe.copies[requestFromMe.copyCount - 1].serviceTo;
+        ServiceInfo serviceTo = processor.findOtherService(requestFromMe.header.serviceNameTo, lastServiceTo);
+        if (serviceTo == null)
+            return false;
+        if (hedged) {
+            hedgeTokens -= 1;
+            stats.hedgesSent.incrementAndGet();
+        } else {
+            destination.retryTokens -= 1;
+            stats.retriesSent.incrementAndGet();
+        }
+        MessageHeader header = new MessageHeader();
+        header.serviceNameFrom = requestFromMe.header.serviceNameFrom;
+        header.serviceNameTo = requestFromMe.header.serviceNameTo;
+        header.id = nextRequestId();
+        header.compression = requestFromMe.header.compression;
+        header.deadlineMillis = (int)remainingMillis;
+        if (requestFromMe.copies == null)
+            requestFromMe.copies = new Copy[maxCopies];
+        requestFromMe.copies[requestFromMe.copyCount++] = new Copy(header.id, serviceTo, nowNanos);
+        requestsFromMeByRequestId.put(header.id, requestFromMe);
+        boolean success = sender.send(header, requestFromMe.data, serviceTo.compression, serviceTo.address, serviceTo.port);
+        if (requestFromMe.copyCount == maxCopies)
+            requestFromMe.data = null;
+        if (!success) {
+            stats.failedRequests.incrementAndGet();
+            sendFailed(requestFromMe, header.id, serviceTo, nowNanos);
+        }
+        return true;
+    }
+
+    // A request or copy that failed to send cannot be answered, so it is reported failed at once and not again when the
+    // request expires.
+    private void sendFailed(RequestFromMeExpectingResponse requestFromMe, long id, ServiceInfo serviceTo, long sentNanos) {
+        requestsFromMeByRequestId.remove(id);
+        processor.reportResponse(requestFromMe.header.serviceNameTo, serviceTo, System.nanoTime() - sentNanos, true);
+    }
+
+    private void addLatencySample(String serviceNameTo, long roundTripNanos) {
+        Destination destination = getDestination(serviceNameTo);
+        destination.latencyMicros[destination.next] = (int)Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(roundTripNanos));
+        destination.next = (destination.next + 1) % LATENCY_SAMPLES;
+        destination.count = Math.min(LATENCY_SAMPLES, destination.count + 1);
+        if (++destination.sinceRecompute >= LATENCY_RECOMPUTE_INTERVAL && destination.count >= LATENCY_SAMPLES_MIN) {
+            destination.sinceRecompute = 0;
+            System.arraycopy(destination.latencyMicros, 0, latencySortScratch, 0, destination.count);
+            Arrays.sort(latencySortScratch, 0, destination.count);
+            int index = (int)Math.ceil(config.hedgePercentile / 100.0 * destination.count) - 1;
+            int micros = latencySortScratch[Math.max(0, index)];
+            destination.hedgeDelayMillis = Math.max(1, (micros + 999) / 1000);
+        }
+    }
+
+    // Answers a request to me at once without processing it, telling the requester it may retry elsewhere.
+    private void reject(MessageToMe messageToMe) {
+        stats.requestsRejected.incrementAndGet();
+        if (messageToMe.bufferPool != null)
+            messageToMe.bufferPool.release(messageToMe.data);
+        MessageHeader requestHeader = messageToMe.header;
+        if (requestHeader.id == null)
+            return;
+        MessageHeader header = new MessageHeader();
+        header.serviceNameFrom = config.serviceName;
+        header.serviceNameTo = requestHeader.serviceNameFrom;
+        header.id = requestHeader.id;
+        header.responseMeta = new MessageHeader.ResponseMeta();
+        header.responseMeta.rejected = true;
+        if (!sender.send(header, null, null, messageToMe.serviceAddressFrom, messageToMe.servicePortFrom))
+            stats.failedResponses.incrementAndGet();
+    }
+
+    // Answers a request to me from the memo cache, without my microservice.
+    private void respondMemoized(MessageToMe messageToMe, Processor.MemoizedResponse memoized) {
+        if (messageToMe.bufferPool != null)
+            messageToMe.bufferPool.release(messageToMe.data);
+        MessageHeader requestHeader = messageToMe.header;
+        MessageHeader header = new MessageHeader();
+        header.serviceNameFrom = config.serviceName;
+        header.serviceNameTo = requestHeader.serviceNameFrom;
+        header.id = requestHeader.id;
+        header.responseMeta = memoized.responseMeta;
+        stats.responsesSent.incrementAndGet();
+        if (!sender.send(header, memoized.data, requestHeader.compression, messageToMe.serviceAddressFrom, messageToMe.servicePortFrom))
+            stats.failedResponses.incrementAndGet();
+    }
+
+    private void wakeUp() {
+        if (parked)
+            LockSupport.unpark(this);
+    }
+
+    /**
+     * Counters of one shard, summed over the shards for the per minute stats.
+     */
+    static class ShardStats {
+        final AtomicInteger requestsSent = new AtomicInteger();
+        final AtomicInteger requestsReceived = new AtomicInteger();
+        final AtomicInteger responsesSent = new AtomicInteger();
+        final AtomicInteger responsesReceived = new AtomicInteger();
+        final AtomicInteger responsesDroppedByMe = new AtomicInteger();
+        final AtomicInteger responsesDroppedByOthers = new AtomicInteger();
+        final AtomicInteger failedRequests = new AtomicInteger();
+        final AtomicInteger failedResponses = new AtomicInteger();
+        final AtomicInteger requestsDroppedPastDeadline = new AtomicInteger();
+        final AtomicInteger requestsRejected = new AtomicInteger();
+        final AtomicInteger rejectionsReceived = new AtomicInteger();
+        final AtomicInteger hedgesSent = new AtomicInteger();
+        final AtomicInteger hedgesWon = new AtomicInteger();
+        final AtomicInteger hedgesOverBudget = new AtomicInteger();
+        final AtomicInteger retriesSent = new AtomicInteger();
+        final AtomicInteger retriesWon = new AtomicInteger();
+        final AtomicInteger retriesOverBudget = new AtomicInteger();
+        final AtomicInteger requestsJoined = new AtomicInteger();
+    }
+
+    private class MessageFromMe {
+        private final MessageHeader header;
+        private final byte[] data;
+        private final ResponseFuture responseFuture;
+        private final ServiceInfo serviceTo;
+        private final Long internalRequestId;
+        private final int options;
+        private final RequestKey requestKey;
+
+        private MessageFromMe(MessageHeader header, byte[] data, ResponseFuture responseFuture, ServiceInfo serviceTo, Long internalRequestId, int options,
+                RequestKey requestKey) {
+            this.header = header;
+            this.data = data;
+            this.responseFuture = responseFuture;
+            this.serviceTo = serviceTo;
+            this.internalRequestId = internalRequestId;
+            this.options = options;
+            this.requestKey = requestKey;
+        }
+    }
+
+    private class MessageToMe {
+        private final MessageHeader header;
+        private final ByteBuffer data;
+        private final BufferPool bufferPool;
+        private final InetAddress serviceAddressFrom;
+        private final int servicePortFrom;
+        private final long receivedNanos;
+
+        private MessageToMe(MessageHeader header, ByteBuffer data, BufferPool bufferPool, InetAddress serviceAddressFrom, int servicePortFrom, long receivedNanos) {
+            this.header = header;
+            this.data = data;
+            this.bufferPool = bufferPool;
+            this.serviceAddressFrom = serviceAddressFrom;
+            this.servicePortFrom = servicePortFrom;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private class RequestFromMeExpectingResponse extends TimingWheel.Entry {
+        private final MessageHeader header;
+        private final ResponseFuture responseFuture;
+        private final ServiceInfo serviceTo;
+        private final long timeoutMillis;
+        private final long sentNanos;
+        private final int options;
+        private boolean completed; // the response future is set, though copies may still be awaited
+        private byte[] data; // kept while copies may yet be sent
+        private FollowUpTimer followUpTimer;
+        private Copy[] copies; // sent to other instances, if any
+        private int copyCount;
+        private ResponseFuture.Response rejectedResponse; // held while another copy may answer
+        private RequestKey requestKey; // if single flight or response caching is used
+        private List<ResponseFuture> joined; // identical single flight requests awaiting this response
+
+        private RequestFromMeExpectingResponse(MessageHeader header, ResponseFuture responseFuture, ServiceInfo serviceTo, long timeoutMillis, long sentNanos,
+                int options) {
+            this.header = header;
+            this.responseFuture = responseFuture;
+            this.serviceTo = serviceTo;
+            this.timeoutMillis = timeoutMillis;
+            this.sentNanos = sentNanos;
+            this.options = options;
+        }
+    }
+
+    // A request sent again to another instance under its own id.
+    private class Copy {
+        private final long id;
+        private final ServiceInfo serviceTo;
+        private final long sentNanos;
+
+        private Copy(long id, ServiceInfo serviceTo, long sentNanos) {
+            this.id = id;
+            this.serviceTo = serviceTo;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private class RequestToMeExpectingResponse extends TimingWheel.Entry {
+        private final long internalRequestId;
+        private final MessageHeader header;
+        private final InetAddress serviceAddressFrom;
+        private final int servicePortFrom;
+        private final long timeoutMillis;
+        private RequestKey memoKey; // if memoizing
+        private long memoGeneration;
+
+        private RequestToMeExpectingResponse(long internalRequestId, MessageHeader header, InetAddress serviceAddressFrom, int servicePortFrom, long timeoutMillis) {
+            this.internalRequestId = internalRequestId;
+            this.header = header;
+            this.serviceAddressFrom = serviceAddressFrom;
+            this.servicePortFrom = servicePortFrom;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    // A request can be in only one wheel, so its copies are timed by a separate entry.
+    private class FollowUpTimer extends TimingWheel.Entry {
+        private final RequestFromMeExpectingResponse request;
+
+        private FollowUpTimer(RequestFromMeExpectingResponse request) {
+            this.request = request;
+        }
+    }
+
+    // What this shard keeps per destination microservice - recent response round trips, whose percentile delays
+    // hedges, and the retry budget.
+    private class Destination {
+        private final int[] latencyMicros = new int[LATENCY_SAMPLES];
+        private int next;
+        private int count;
+        private int sinceRecompute;
+        private long hedgeDelayMillis; // 0 until enough samples are in
+        private double retryTokens = RETRY_TOKENS_MAX; // each retried request earns noqms.retryBudgetPercent of one
+    }
+}
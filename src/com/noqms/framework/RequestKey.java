@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Identifies a request by its destination microservice and data, so identical requests in flight at once can share one
+ * response and responses can be cached. The hash is taken once on the calling thread, and also picks the shard so
+ * identical single flight requests meet there.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class RequestKey {
+    private final String serviceNameTo;
+    private final byte[] data; // null if no data
+    private final int offset;
+    private final int length;
+    private final int hash;
+
+    public RequestKey(String serviceNameTo, byte[] data) {
+        this(serviceNameTo, data, 0, data == null ? 0 : data.length);
+    }
+
+    /**
+     * Keys on the remaining bytes of the buffer in place, without copying unless it has no array - copy() it to keep
+     * past the request.
+     */
+    public RequestKey(String serviceNameTo, ByteBuffer data) {
+        this(serviceNameTo, data == null || !data.hasArray() ? Util.bytesFromBuffer(data) : data.array(),
+                data == null || !data.hasArray() ? 0 : data.arrayOffset() + data.position(), data == null ? 0 : data.remaining());
+    }
+
+    private RequestKey(String serviceNameTo, byte[] data, int offset, int length) {
+        this.serviceNameTo = serviceNameTo;
+        this.data = length == 0 ? null : data; // no data and empty data are the same request
+        this.offset = offset;
+        this.length = length;
+        int dataHash = 1;
+        for (int ix = offset; ix < offset + length; ix++)
+            dataHash = 31 * dataHash + data[ix];
+        this.hash = 31 * serviceNameTo.hashCode() + dataHash;
+    }
+
+    private RequestKey(String serviceNameTo, byte[] data, int hash) {
+        this.serviceNameTo = serviceNameTo;
+        this.data = data;
+        this.offset = 0;
+        this.length = data == null ? 0 : data.length;
+        this.hash = hash;
+    }
+
+    /**
+     * @return an equal key with its own copy of the data, for keeping past the request
+     */
+    public RequestKey copy() {
+        return new RequestKey(serviceNameTo, data == null ? null : Arrays.copyOfRange(data, offset, offset + length), hash);
+    }
+
+    public int getDataLength() {
+        return length;
+    }
+
+    public int getShardIndex(int shardCount) {
+        return Math.floorMod(hash, shardCount);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof RequestKey))
+            return false;
+        RequestKey other = (RequestKey)obj;
+        if (hash != other.hash || length != other.length || !serviceNameTo.equals(other.serviceNameTo))
+            return false;
+        return length == 0 || Arrays.equals(data, offset, offset + length, other.data, other.offset, other.offset + other.length);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.noqms.framework;
+
+/**
+ * Hands requests to me over to the threads running your microservice.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public interface RequestToMeDispatcher {
+    /**
+     * Called from the processor threads and must return quickly.
+     */
+    void dispatch(RequestToMeThread.Request request);
+
+    /**
+     * @return the number of requests waiting for a thread - cheap enough to call on every processor pass
+     */
+    int getBacklog();
+
+    void die();
+}
@@ -16,71 +16,119 @@
 
 package com.noqms.framework;
 
-import java.util.ArrayDeque;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.noqms.MicroService;
+import com.noqms.ServiceResponse;
 
 /**
  * @author Stanley Barzee
  * @since 1.0.0
  */
 public class RequestToMeThread extends Thread {
-    private final ArrayDeque<Request> requestsToMe;
+    private final RequestToMeThreads requestToMeThreads;
     private final Harness harness;
     private final MicroService microservice;
-    private final AtomicBoolean die = new AtomicBoolean();
     private final int threadIndex;
+    final AtomicBoolean idle = new AtomicBoolean(); // set while offering itself as idle to RequestToMeThreads
+
+    // The deadline of the request being processed on this thread, so requests it makes in turn inherit it.
+    private static final ThreadLocal<Long> currentDeadlineNanos = new ThreadLocal<>();
 
     public static class Request {
         public final Long requestId;
         public final String serviceNameFrom;
-        public final byte[] data;
+        public final ByteBuffer data;
+        public final BufferPool bufferPool; // if non null the data is released to this pool once processed
+        public final Long deadlineNanos; // System.nanoTime() after which the requester no longer waits, if known
 
-        public Request(Long requestId, String serviceNameFrom, byte[] data) {
+        public Request(Long requestId, String serviceNameFrom, ByteBuffer data, BufferPool bufferPool, Long deadlineNanos) {
             this.requestId = requestId;
             this.serviceNameFrom = serviceNameFrom;
             this.data = data;
+            this.bufferPool = bufferPool;
+            this.deadlineNanos = deadlineNanos;
         }
     }
 
-    public RequestToMeThread(Harness harness, ArrayDeque<Request> requestsToMe, MicroService microservice,
+    public RequestToMeThread(Harness harness, RequestToMeThreads requestToMeThreads, MicroService microservice,
             int threadIndex) {
-        this.requestsToMe = requestsToMe;
+        this.requestToMeThreads = requestToMeThreads;
         this.harness = harness;
         this.microservice = microservice;
         this.threadIndex = threadIndex;
         setDaemon(true);
     }
 
-    public void die() {
-        die.set(true);
-        synchronized (requestsToMe) {
-            requestsToMe.notifyAll();
-        }
+    public int getThreadIndex() {
+        return threadIndex;
     }
 
     public void run() {
-        while (!die.get()) {
-            Request request = null;
-            synchronized (requestsToMe) {
-                request = requestsToMe.pollFirst();
-                if (request == null) {
-                    try {
-                        requestsToMe.wait();
-                    } catch (Exception ex) {
-                    }
-                }
-            }
-            if (request != null) {
-                try {
-                    long startTimeMillis = System.currentTimeMillis();
-                    microservice.processRequest(request.requestId, request.serviceNameFrom, request.data, threadIndex);
-                    harness.getProcessor().processRequestMillis((int)(System.currentTimeMillis() - startTimeMillis));
-                } catch (Throwable th) {
-                    harness.getLogger().error("Your microservice threw an exception in processRequest()", th);
-                }
-            }
+        while (true) {
+            Request request = requestToMeThreads.take(this); // blocking
+            if (request == null)
+                break;
+            process(harness, microservice, request, threadIndex);
+        }
+    }
+
+    /**
+     * @return the deadline of the request being processed on the calling thread, or null if none
+     */
+    static Long getCurrentDeadlineNanos() {
+        return currentDeadlineNanos.get();
+    }
+
+    static void process(Harness harness, MicroService microservice, Request request, int threadIndex) {
+        if (request.deadlineNanos != null && System.nanoTime() - request.deadlineNanos >= 0) {
+            // the requester gave up while this waited for a thread
+            harness.getProcessor().abandonRequestToMe(request.requestId);
+            if (request.bufferPool != null)
+                request.bufferPool.release(request.data);
+            return;
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        CompletionStage<ServiceResponse> stage = null;
+        currentDeadlineNanos.set(request.deadlineNanos);
+        harness.getProcessor().requestToMeStarted();
+        try {
+            stage = microservice.processRequestAsync(request.requestId, request.serviceNameFrom, request.data, threadIndex);
+        } catch (Throwable th) {
+            harness.getLogger().error("Your microservice threw an exception in processRequest()", th);
+        } finally {
+            harness.getProcessor().requestToMeReturned();
+            currentDeadlineNanos.remove();
+        }
+        if (stage == null) {
+            finish(harness, request, startTimeMillis);
+            return;
         }
+
+        // The request stays in flight until the stage completes, on whatever thread completes it.
+        harness.getProcessor().asyncRequestStarted();
+        stage.whenComplete((response, th) -> {
+            try {
+                if (th != null)
+                    harness.getLogger().error("Your microservice's processRequestAsync() completed exceptionally", th);
+                else if (response != null)
+                    microservice.sendResponse(request.requestId, response.code, response.userMessage, response.nerdDetail, response.data,
+                            response.cacheMillis);
+            } catch (Throwable sendTh) {
+                harness.getLogger().error("Unable to send the response completed by processRequestAsync()", sendTh);
+            } finally {
+                harness.getProcessor().asyncRequestFinished();
+                finish(harness, request, startTimeMillis);
+            }
+        });
+    }
+
+    private static void finish(Harness harness, Request request, long startTimeMillis) {
+        harness.getProcessor().processRequestMillis((int)(System.currentTimeMillis() - startTimeMillis));
+        if (request.bufferPool != null)
+            request.bufferPool.release(request.data);
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.noqms.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.MicroService;
+
+/**
+ * The noqms.threads platform threads running your microservice, each with its own lock free deque. A request goes to
+ * an idle thread if there is one, else round robin. A thread with nothing of its own steals from the tail of the
+ * others before parking. The backlog is a counter kept alongside, so reading it takes no lock.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class RequestToMeThreads implements RequestToMeDispatcher {
+    private final List<RequestToMeThread> threads = new ArrayList<>();
+    private final List<ConcurrentLinkedDeque<RequestToMeThread.Request>> deques = new ArrayList<>();
+    private final ConcurrentLinkedQueue<RequestToMeThread> idleThreads = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicBoolean die = new AtomicBoolean();
+
+    public RequestToMeThreads(Harness harness, MicroService microservice) {
+        int threadCount = harness.getConfig().threads;
+        for (int ix = 0; ix < Math.max(1, threadCount); ix++)
+            deques.add(new ConcurrentLinkedDeque<>()); // requests just wait if there are no threads
+        for (int ix = 0; ix < threadCount; ix++)
+            threads.add(new RequestToMeThread(harness, this, microservice, ix));
+        for (RequestToMeThread thread : threads)
+            thread.start();
+    }
+
+    @Override
+    public void dispatch(RequestToMeThread.Request request) {
+        backlog.incrementAndGet(); // counted first so a thread about to park sees it
+        RequestToMeThread idleThread = claimIdleThread();
+        int index = idleThread != null ? idleThread.getThreadIndex() : Math.floorMod(nextIndex.getAndIncrement(), deques.size());
+        deques.get(index).offerLast(request);
+        if (idleThread != null)
+            LockSupport.unpark(idleThread);
+    }
+
+    @Override
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    @Override
+    public void die() {
+        die.set(true);
+        for (RequestToMeThread thread : threads)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Called by each thread for its next request - blocks until there is one.
+     * 
+     * @return the next request, or null once dying
+     */
+    RequestToMeThread.Request take(RequestToMeThread thread) {
+        int index = thread.getThreadIndex();
+        while (!die.get()) {
+            RequestToMeThread.Request request = deques.get(index).pollFirst();
+            if (request == null)
+                request = steal(index);
+            if (request != null) {
+                thread.idle.set(false);
+                backlog.decrementAndGet();
+                return request;
+            }
+
+            // Advertised as idle before checking the backlog, so a dispatch either sees this thread or is seen here.
+            // Advertised once per idle period, as the backlog may be counted before its request is in a deque.
+            if (thread.idle.compareAndSet(false, true))
+                idleThreads.offer(thread);
+            if (backlog.get() > 0 || die.get()) {
+                Thread.onSpinWait();
+                continue;
+            }
+            LockSupport.park(thread);
+        }
+        return null;
+    }
+
+    private RequestToMeThread.Request steal(int index) {
+        int count = deques.size();
+        for (int ix = 1; ix < count; ix++) {
+            RequestToMeThread.Request request = deques.get((index + ix) % count).pollLast();
+            if (request != null)
+                return request;
+        }
+        return null;
+    }
+
+    // A thread can be in the idle queue more than once or no longer idle, so only a successful claim counts.
+    private RequestToMeThread claimIdleThread() {
+        while (true) {
+            RequestToMeThread thread = idleThreads.poll();
+            if (thread == null || thread.idle.compareAndSet(true, false))
+                return thread;
+        }
+    }
+}
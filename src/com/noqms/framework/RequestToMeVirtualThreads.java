@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+
+/**
+ * Runs requests to me on virtual threads started as needed, at most noqms.threads at a time. Requests beyond that wait
+ * in a queue whose size is the backlog driving back pressure. A thread keeps taking queued
+ * requests until none are left, and keeps one thread index for its life so the index stays within noqms.threads.
+ *
+ * Virtual threads are reached through reflection since they need Java 21. On an older runtime platform threads are
+ * started instead, with the same limit.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class RequestToMeVirtualThreads implements RequestToMeDispatcher {
+    private final Harness harness;
+    private final ArrayDeque<RequestToMeThread.Request> requestsToMe = new ArrayDeque<>();
+    private final AtomicInteger backlog = new AtomicInteger(); // the size of requestsToMe, readable without the lock
+    private final MicroService microservice;
+    private final ThreadFactory threadFactory;
+    private final ArrayDeque<Integer> freeThreadIndexes = new ArrayDeque<>(); // guarded by requestsToMe
+    private final AtomicBoolean die = new AtomicBoolean();
+
+    public RequestToMeVirtualThreads(Harness harness, MicroService microservice) {
+        this.harness = harness;
+        this.microservice = microservice;
+        this.threadFactory = createThreadFactory(harness.getLogger());
+        for (int ix = 0; ix < harness.getConfig().threads; ix++)
+            freeThreadIndexes.add(ix);
+    }
+
+    @Override
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    @Override
+    public void die() {
+        die.set(true);
+    }
+
+    /**
+     * Starts a thread for the request if under the limit, else queues it.
+     */
+    @Override
+    public void dispatch(RequestToMeThread.Request request) {
+        Integer threadIndex;
+        synchronized (requestsToMe) {
+            threadIndex = freeThreadIndexes.poll();
+            if (threadIndex == null) {
+                requestsToMe.addLast(request);
+                backlog.incrementAndGet();
+                return;
+            }
+        }
+        int index = threadIndex;
+        threadFactory.newThread(() -> run(request, index)).start();
+    }
+
+    private void run(RequestToMeThread.Request request, int threadIndex) {
+        while (request != null && !die.get()) {
+            RequestToMeThread.process(harness, microservice, request, threadIndex);
+            synchronized (requestsToMe) {
+                request = requestsToMe.pollFirst();
+                if (request == null)
+                    freeThreadIndexes.push(threadIndex);
+                else
+                    backlog.decrementAndGet();
+            }
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(LogListener logger) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, "noqms-request-", 0L);
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (Exception ex) {
+            logger.warn("Virtual threads are not available in this Java runtime - using platform threads");
+            ThreadFactory platformFactory = Executors.defaultThreadFactory();
+            return runnable -> {
+                Thread thread = platformFactory.newThread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
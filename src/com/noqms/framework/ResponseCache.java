@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches responses by request, each for its own time to live - the responses of other microservices marked cacheable,
+ * and the memoized responses of my microservice. Bounded in bytes, counting the request and response data plus a fixed
+ * overhead per entry.
+ *
+ * The cache is split into segments by key hash, each a segmented LRU under its own lock. A new entry is on probation;
+ * if hit again it is protected. Eviction takes the least recently used on probation first, so a burst of one time
+ * requests cannot push out the entries hit repeatedly.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class ResponseCache<V> {
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final List<Segment<V>> segments = new ArrayList<>(SEGMENTS);
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger expirations = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    public ResponseCache(long maxBytes) {
+        for (int ix = 0; ix < SEGMENTS; ix++)
+            segments.add(new Segment<>(maxBytes / SEGMENTS, this));
+    }
+
+    /**
+     * @return the cached response, or null if none or expired
+     */
+    public V get(RequestKey key) {
+        V response = getSegment(key).get(key, System.nanoTime());
+        if (response == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * Caches a response for cacheMillis. The key is kept, so must own its data - see RequestKey.copy(). Responses too
+     * large are not cached.
+     */
+    public void put(RequestKey key, V response, int responseBytes, int cacheMillis) {
+        long bytes = ENTRY_OVERHEAD_BYTES + key.getDataLength() + responseBytes;
+        Segment<V> segment = getSegment(key);
+        if (bytes > segment.maxBytes)
+            return;
+        long expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cacheMillis);
+        segment.put(new Entry<>(key, response, expiresNanos, bytes));
+    }
+
+    public void remove(RequestKey key) {
+        getSegment(key).remove(key);
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments)
+            segment.clear();
+    }
+
+    public CacheStats getAndResetStats() {
+        int entries = 0;
+        long bytes = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                entries += segment.probation.size() + segment.protectedEntries.size();
+                bytes += segment.bytes;
+            }
+        }
+        return new CacheStats(hits.getAndSet(0), misses.getAndSet(0), expirations.getAndSet(0), evictions.getAndSet(0),
+                entries, bytes);
+    }
+
+    /**
+     * Response cache counters reported in the per minute stats.
+     */
+    public static class CacheStats {
+        public final int hits;
+        public final int misses;
+        public final int expirations;
+        public final int evictions;
+        public final int currentEntries;
+        public final long currentBytes;
+
+        CacheStats(int hits, int misses, int expirations, int evictions, int currentEntries, long currentBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.expirations = expirations;
+            this.evictions = evictions;
+            this.currentEntries = currentEntries;
+            this.currentBytes = currentBytes;
+        }
+    }
+
+    private Segment<V> getSegment(RequestKey key) {
+        int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+    }
+
+    private static class Segment<V> {
+        private final ResponseCache<V> cache; // for the counters
+        private final long maxBytes;
+        private final long maxProtectedBytes;
+        // insertion ordered, an entry being moved to the end when used, so the first is the least recently used
+        private final LinkedHashMap<RequestKey, Entry<V>> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<RequestKey, Entry<V>> protectedEntries = new LinkedHashMap<>();
+        private long bytes;
+        private long protectedBytes;
+
+        private Segment(long maxBytes, ResponseCache<V> cache) {
+            this.cache = cache;
+            this.maxBytes = maxBytes;
+            this.maxProtectedBytes = maxBytes * PROTECTED_PERCENT / 100;
+        }
+
+        private synchronized V get(RequestKey key, long currentTimeNanos) {
+            Entry<V> entry = probation.remove(key);
+            boolean wasProtected = false;
+            if (entry == null) {
+                entry = protectedEntries.remove(key);
+                if (entry == null)
+                    return null;
+                wasProtected = true;
+                protectedBytes -= entry.bytes;
+            }
+            if (currentTimeNanos - entry.expiresNanos >= 0) {
+                bytes -= entry.bytes;
+                cache.expirations.incrementAndGet();
+                return null;
+            }
+            protectedEntries.put(entry.key, entry);
+            protectedBytes += entry.bytes;
+            if (!wasProtected) {
+                // make room by moving the least recently used protected entries back on probation
+                Iterator<Entry<V>> iterator = protectedEntries.values().iterator();
+                while (protectedBytes > maxProtectedBytes) {
+                    Entry<V> demoted = iterator.next();
+                    iterator.remove();
+                    protectedBytes -= demoted.bytes;
+                    probation.put(demoted.key, demoted);
+                }
+            }
+            return entry.response;
+        }
+
+        private synchronized void put(Entry<V> entry) {
+            Entry<V> replaced = probation.remove(entry.key);
+            if (replaced == null) {
+                replaced = protectedEntries.remove(entry.key);
+                if (replaced != null)
+                    protectedBytes -= replaced.bytes;
+            }
+            if (replaced != null)
+                bytes -= replaced.bytes;
+            probation.put(entry.key, entry);
+            bytes += entry.bytes;
+            while (bytes > maxBytes) {
+                LinkedHashMap<RequestKey, Entry<V>> victims = probation.isEmpty() ? protectedEntries : probation;
+                Iterator<Entry<V>> iterator = victims.values().iterator();
+                Entry<V> evicted = iterator.next();
+                iterator.remove();
+                bytes -= evicted.bytes;
+                if (victims == protectedEntries)
+                    protectedBytes -= evicted.bytes;
+                cache.evictions.incrementAndGet();
+            }
+        }
+
+        private synchronized void remove(RequestKey key) {
+            Entry<V> removed = probation.remove(key);
+            if (removed == null) {
+                removed = protectedEntries.remove(key);
+                if (removed != null)
+                    protectedBytes -= removed.bytes;
+            }
+            if (removed != null)
+                bytes -= removed.bytes;
+        }
+
+        private synchronized void clear() {
+            probation.clear();
+            protectedEntries.clear();
+            bytes = 0;
+            protectedBytes = 0;
+        }
+    }
+
+    private static class Entry<V> {
+        private final RequestKey key;
+        private final V response;
+        private final long expiresNanos;
+        private final long bytes;
+
+        private Entry(RequestKey key, V response, long expiresNanos, long bytes) {
+            this.key = key;
+            this.response = response;
+            this.expiresNanos = expiresNanos;
+            this.bytes = bytes;
+        }
+    }
+}
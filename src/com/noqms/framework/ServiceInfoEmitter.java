@@ -27,7 +27,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ServiceInfoEmitter extends Thread {
     private final Harness harness;
     private final AtomicBoolean die = new AtomicBoolean();
-    private final AtomicBoolean pause = new AtomicBoolean();
+    private final AtomicBoolean emitNow = new AtomicBoolean();
 
     public ServiceInfoEmitter(Harness harness) {
         this.harness = harness;
@@ -36,19 +36,16 @@ public class ServiceInfoEmitter extends Thread {
 
     public void die() {
         die.set(true);
-        unpause();
+        emitNow();
     }
 
-    public boolean pause() {
-        return pause.getAndSet(true);
-    }
-
-    public boolean unpause() {
-        synchronized (pause) {
-            boolean oldValue = pause.get();
-            pause.set(false);
-            pause.notify();
-            return oldValue;
+    /**
+     * Cuts the current interval short so my service info, with its current load, goes out right away.
+     */
+    public void emitNow() {
+        synchronized (emitNow) {
+            emitNow.set(true);
+            emitNow.notify();
         }
     }
 
@@ -58,30 +55,40 @@ public class ServiceInfoEmitter extends Thread {
         String myServiceName = config.serviceName;
         int myPort = harness.getServiceUdp().getReceivePort();
         int myTimeoutMillis = config.timeoutMillis;
+        String myCompression = harness.getCompressor() == null ? null : harness.getCompressor().getName();
         int intervalMillis = harness.getConfig().emitterIntervalMillis;
         int intervalHalfWindowMillis = intervalMillis / 5;
         Random random = new Random();
+        // A service finder that does not take the load gets back pressure as before - my service info is not sent while
+        // applied.
+        boolean finderTakesLoad = false;
+        try {
+            finderTakesLoad = harness.getServiceFinder().takesLoad();
+        } catch (Throwable th) {
+            harness.getLogger().error("Pluggable service finder threw an exception in takesLoad()", th);
+        }
 
         while (!die.get()) {
-            synchronized (pause) {
-                while (pause.get()) {
+            if (finderTakesLoad || !harness.getProcessor().isApplyingBackPressure()) {
+                try {
+                    InetAddress myAddress = Util.findMyInetAddress();
+                    int myLoad = harness.getProcessor().getLoad();
+                    harness.getServiceFinder().sendMyServiceInfo(myServiceName, myAddress, myPort, myTimeoutMillis, myCompression, myLoad);
+                } catch (Throwable th) {
+                    harness.getLogger().error("Pluggable service finder threw an exception in sendMyServiceInfo()", th);
+                }
+            }
+            // Introduce jitter for better distribution when a low number of a given unique microservice exists.
+            int sleepMillis = intervalMillis - intervalHalfWindowMillis + random.nextInt(2 * intervalHalfWindowMillis);
+            synchronized (emitNow) {
+                if (!emitNow.get()) {
                     try {
-                        pause.wait();
+                        emitNow.wait(sleepMillis);
                     } catch (Exception ex) {
                     }
                 }
+                emitNow.set(false);
             }
-            if (die.get())
-                break;
-            try {
-                InetAddress myAddress = Util.findMyInetAddress();
-                harness.getServiceFinder().sendMyServiceInfo(myServiceName, myAddress, myPort, myTimeoutMillis);
-            } catch (Throwable th) {
-                harness.getLogger().error("Pluggable service finder threw an exception in sendMyServiceInfo()", th);
-            }
-            // Introduce jitter for better distribution when a low number of a given unique microservice exists.
-            int sleepMillis = intervalMillis - intervalHalfWindowMillis + random.nextInt(2 * intervalHalfWindowMillis);
-            Util.sleepMillis(sleepMillis);
         }
     }
 }
@@ -19,149 +19,572 @@ package com.noqms.framework;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.noqms.Compressor;
 import com.noqms.LogListener;
 
 /**
  * @author Stanley Barzee
  * @since 1.0.0
  */
-public class ServiceUdp extends Thread {
+public class ServiceUdp {
     private static final int UDP_BUFFER_CAPACITY_MESSAGES = 100;
-    private static final int HEADER_LENGTH_BYTES = 10;
+    private static final int MAX_DATAGRAM_BYTES = 65507; // receive buffers take any datagram, as the sender sizes batches and fragments
 
     private final Harness harness;
+    private final Config config;
     private final LogListener logger;
-    private final DatagramSocket datagramSocket;
+    private final List<ReceiveThread> receiveThreads = new ArrayList<>();
+    private final List<Sender> senders = new ArrayList<>();
+    private final FragmentReassembler fragmentReassembler;
     private final int receivePort;
-    private final byte[] receiveData;
+    private final boolean legacyWireFormat;
+    private final Compressor compressor;
+    // Randomly seeded, so the fragments of a restarted sender reusing its port do not join those reassembled from before.
+    private final AtomicLong fragmentMessageIdGenerator = new AtomicLong(new Random().nextLong());
+    private final AtomicInteger fragmentsSent = new AtomicInteger();
+    private final AtomicInteger messagesCompressed = new AtomicInteger();
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicInteger messagesDecompressed = new AtomicInteger();
+    private final AtomicLong decompressNanos = new AtomicLong();
     private final AtomicBoolean die = new AtomicBoolean();
 
     public ServiceUdp(Harness harness) throws Exception {
         this.harness = harness;
+        this.config = harness.getConfig();
         this.logger = harness.getLogger();
 
-        Config config = harness.getConfig();
+        boolean channelMode = config.receiveMode.equals(Config.RECEIVE_MODE_CHANNEL);
+        fragmentReassembler = new FragmentReassembler(config.reassemblyBytes, MessageHeader.MAX_BYTES + config.maxMessageInBytes,
+                config.reassemblyTimeoutMillis);
 
-        datagramSocket = new DatagramSocket(config.dataPort);
-        datagramSocket.setSoTimeout(0);
-        datagramSocket.setReceiveBufferSize(UDP_BUFFER_CAPACITY_MESSAGES * (MessageHeader.MAX_BYTES + config.maxMessageInBytes));
-        datagramSocket.setSendBufferSize(UDP_BUFFER_CAPACITY_MESSAGES * (MessageHeader.MAX_BYTES + config.maxMessageOutBytes));
+        // Each receive thread gets its own socket on the same port if the platform supports SO_REUSEPORT, letting the
+        // kernel spread the incoming datagrams. Otherwise the receive threads share the one socket.
+        boolean reusePort = config.receiveThreads > 1 && supportsReusePort(channelMode);
+        if (config.receiveThreads > 1 && !reusePort)
+            logger.warn("SO_REUSEPORT is not supported - receive threads will share a single socket");
 
-        receivePort = datagramSocket.getLocalPort();
-        receiveData = new byte[MessageHeader.MAX_BYTES + config.maxMessageInBytes];
+        int port = config.dataPort;
+        for (int ix = 0; ix < config.receiveThreads; ix++) {
+            ReceiveThread receiveThread;
+            if (ix > 0 && !reusePort)
+                receiveThread = new ReceiveThread(receiveThreads.get(0));
+            else if (channelMode)
+                receiveThread = new ReceiveThread(openChannel(port, reusePort));
+            else
+                receiveThread = new ReceiveThread(openSocket(port, reusePort));
+            receiveThreads.add(receiveThread);
+            port = receiveThread.datagramSocket.getLocalPort();
+        }
+
+        receivePort = receiveThreads.get(0).datagramSocket.getLocalPort();
+        compressor = harness.getCompressor();
+        legacyWireFormat = legacyWireFormat(config);
 
-        setDaemon(true);
-        start();
+        // Sends must come from the receive port since responses go back to the port a request came from. Each
+        // processor thread sends through its own sender, spread over the receive sockets.
+        for (int ix = 0; ix < config.processorThreads; ix++)
+            senders.add(new Sender(receiveThreads.get(ix % receiveThreads.size()).datagramSocket));
+
+        for (ReceiveThread receiveThread : receiveThreads)
+            receiveThread.start();
     }
 
     public void die() {
         die.set(true);
-        datagramSocket.close();
+        for (ReceiveThread receiveThread : receiveThreads)
+            receiveThread.datagramSocket.close();
     }
 
     public int getReceivePort() {
         return receivePort;
     }
 
-    @Override
-    public void run() {
-        while (!die.get()) {
-            DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+    /**
+     * @return per receive thread counters since the last call
+     */
+    public List<ReceiveStats> getAndResetReceiveStats() {
+        List<ReceiveStats> receiveStats = new ArrayList<>();
+        for (ReceiveThread receiveThread : receiveThreads)
+            receiveStats.add(receiveThread.getAndResetStats());
+        return receiveStats;
+    }
 
-            try {
-                datagramSocket.receive(packet); // blocking
-            } catch (Exception ex) {
-                if (!die.get())
-                    logger.error("Error receiving service packet", ex);
-                continue;
-            }
+    public CompressionStats getAndResetCompressionStats() {
+        return new CompressionStats(messagesCompressed.getAndSet(0), bytesBeforeCompression.getAndSet(0),
+                bytesAfterCompression.getAndSet(0), compressNanos.getAndSet(0), messagesDecompressed.getAndSet(0),
+                decompressNanos.getAndSet(0));
+    }
+
+    /**
+     * @return the sender for the given processor thread
+     */
+    public Sender getSender(int processorIndex) {
+        return senders.get(processorIndex);
+    }
 
-            byte[] packetData = packet.getData();
-            int packetLength = packet.getLength();
-            if (packetLength < HEADER_LENGTH_BYTES) {
-                logger.error("Received service message is too small: " + packetLength, null);
-                continue;
+    /**
+     * @return coalescing counters summed over the senders, or null if not coalescing
+     */
+    public Coalescer.CoalesceStats getAndResetCoalesceStats() {
+        int batchesSent = 0;
+        int messagesCoalesced = 0;
+        for (Sender sender : senders) {
+            if (sender.coalescer == null)
+                return null;
+            Coalescer.CoalesceStats stats = sender.coalescer.getAndResetStats();
+            batchesSent += stats.batchesSent;
+            messagesCoalesced += stats.messagesCoalesced;
+        }
+        return new Coalescer.CoalesceStats(batchesSent, messagesCoalesced);
+    }
+
+    private static boolean legacyWireFormat(Config config) {
+        return config.wireFormat.equals(Config.WIRE_FORMAT_JSON);
+    }
+
+    private static boolean supportsReusePort(boolean channelMode) throws Exception {
+        if (channelMode) {
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
             }
+        }
+        try (DatagramSocket socket = new DatagramSocket(null)) {
+            return socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
 
-            byte[] headerLengthData = new byte[HEADER_LENGTH_BYTES];
-            System.arraycopy(packetData, 0, headerLengthData, 0, HEADER_LENGTH_BYTES);
-            String headerLengthString = new String(headerLengthData, StandardCharsets.UTF_8);
-            int headerLength = 0;
-            try {
-                headerLength = Integer.valueOf(headerLengthString);
-            } catch (Exception ex) {
-                logger.error("Received service message has an invalid header length: " + headerLengthString, null);
-                continue;
+    public FragmentReassembler.FragmentStats getAndResetFragmentStats() {
+        return fragmentReassembler.getAndResetStats(fragmentsSent.getAndSet(0));
+    }
+
+    private DatagramSocket openSocket(int port, boolean reusePort) throws Exception {
+        DatagramSocket socket = new DatagramSocket(null);
+        if (reusePort)
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        socket.bind(new InetSocketAddress(port));
+        configureSocket(socket);
+        return socket;
+    }
+
+    private DatagramChannel openChannel(int port, boolean reusePort) throws Exception {
+        DatagramChannel channel = DatagramChannel.open();
+        if (reusePort)
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        channel.bind(new InetSocketAddress(port));
+        configureSocket(channel.socket());
+        return channel;
+    }
+
+    private void configureSocket(DatagramSocket socket) throws Exception {
+        socket.setSoTimeout(0);
+        socket.setReceiveBufferSize(UDP_BUFFER_CAPACITY_MESSAGES * Math.min(MessageHeader.MAX_BYTES + config.maxMessageInBytes, MAX_DATAGRAM_BYTES));
+        socket.setSendBufferSize(UDP_BUFFER_CAPACITY_MESSAGES * Math.min(MessageHeader.MAX_BYTES + config.maxMessageOutBytes, MAX_DATAGRAM_BYTES));
+    }
+
+    /**
+     * Per receive thread counters reported in the per minute stats.
+     */
+    public static class ReceiveStats {
+        public final int packets;
+        public final long bytes;
+        public final int dropped;
+        public final int buffersExhausted;
+
+        private ReceiveStats(int packets, long bytes, int dropped, int buffersExhausted) {
+            this.packets = packets;
+            this.bytes = bytes;
+            this.dropped = dropped;
+            this.buffersExhausted = buffersExhausted;
+        }
+    }
+
+    /**
+     * Compression counters reported in the per minute stats.
+     */
+    public static class CompressionStats {
+        public final int messagesCompressed;
+        public final long bytesBeforeCompression;
+        public final long bytesAfterCompression;
+        public final double compressionRatio;
+        public final long compressMillis;
+        public final int messagesDecompressed;
+        public final long decompressMillis;
+
+        private CompressionStats(int messagesCompressed, long bytesBeforeCompression, long bytesAfterCompression,
+                long compressNanos, int messagesDecompressed, long decompressNanos) {
+            this.messagesCompressed = messagesCompressed;
+            this.bytesBeforeCompression = bytesBeforeCompression;
+            this.bytesAfterCompression = bytesAfterCompression;
+            this.compressionRatio = bytesAfterCompression == 0 ? 0 : (double)bytesBeforeCompression / bytesAfterCompression;
+            this.compressMillis = TimeUnit.NANOSECONDS.toMillis(compressNanos);
+            this.messagesDecompressed = messagesDecompressed;
+            this.decompressMillis = TimeUnit.NANOSECONDS.toMillis(decompressNanos);
+        }
+    }
+
+    private class ReceiveThread extends Thread {
+        private final DatagramSocket datagramSocket;
+        private final DatagramChannel datagramChannel; // null unless in channel mode
+        private final BufferPool bufferPool; // null unless in channel mode
+        private final AtomicInteger packets = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger dropped = new AtomicInteger();
+
+        private ReceiveThread(DatagramSocket datagramSocket) {
+            this.datagramSocket = datagramSocket;
+            this.datagramChannel = null;
+            this.bufferPool = null;
+            setDaemon(true);
+        }
+
+        private ReceiveThread(DatagramChannel datagramChannel) {
+            this.datagramSocket = datagramChannel.socket(); // sends go through the channel's socket adaptor
+            this.datagramChannel = datagramChannel;
+            this.bufferPool = new BufferPool(config.receiveBuffers, MAX_DATAGRAM_BYTES, config.directBuffers);
+            setDaemon(true);
+        }
+
+        // Shares the socket or channel of another receive thread.
+        private ReceiveThread(ReceiveThread other) {
+            this.datagramSocket = other.datagramSocket;
+            this.datagramChannel = other.datagramChannel;
+            this.bufferPool = other.datagramChannel == null ? null : new BufferPool(config.receiveBuffers, MAX_DATAGRAM_BYTES, config.directBuffers);
+            setDaemon(true);
+        }
+
+        private ReceiveStats getAndResetStats() {
+            return new ReceiveStats(packets.getAndSet(0), bytes.getAndSet(0), dropped.getAndSet(0),
+                    bufferPool == null ? 0 : bufferPool.getAndResetExhausted());
+        }
+
+        @Override
+        public void run() {
+            if (datagramChannel != null)
+                receiveFromChannel();
+            else
+                receiveFromSocket();
+        }
+
+        private void receiveFromSocket() {
+            byte[] receiveData = new byte[MAX_DATAGRAM_BYTES];
+            ByteBuffer receiveBuffer = ByteBuffer.wrap(receiveData);
+            DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+
+            while (!die.get()) {
+                packet.setLength(receiveData.length);
+
+                try {
+                    datagramSocket.receive(packet); // blocking
+                } catch (Exception ex) {
+                    if (!die.get())
+                        logger.error("Error receiving service packet", ex);
+                    continue;
+                }
+
+                packets.incrementAndGet();
+                bytes.addAndGet(packet.getLength());
+                receiveBuffer.limit(packet.getLength());
+                receiveBuffer.position(0);
+
+                if (!acceptMessage(receiveBuffer, null, true, packet.getAddress(), packet.getPort()))
+                    dropped.incrementAndGet();
             }
-            if (packetLength < HEADER_LENGTH_BYTES + headerLength) {
-                logger.error("Received service message has insufficient bytes for header: " + packetLength + " < " + (HEADER_LENGTH_BYTES + headerLength), null);
-                continue;
+        }
+
+        // The payload is handed over in place within the pooled buffer, which is released by whoever consumes it.
+        private void receiveFromChannel() {
+            while (!die.get()) {
+                ByteBuffer buffer = bufferPool.acquire();
+                InetSocketAddress addressFrom = null;
+
+                try {
+                    addressFrom = (InetSocketAddress)datagramChannel.receive(buffer); // blocking
+                } catch (Exception ex) {
+                    bufferPool.release(buffer);
+                    if (!die.get())
+                        logger.error("Error receiving service packet", ex);
+                    continue;
+                }
+
+                buffer.flip();
+                packets.incrementAndGet();
+                bytes.addAndGet(buffer.remaining());
+
+                if (!acceptMessage(buffer, bufferPool, false, addressFrom.getAddress(), addressFrom.getPort()))
+                    dropped.incrementAndGet();
             }
-            int serviceDataLength = packetLength - headerLength - HEADER_LENGTH_BYTES;
-            if (serviceDataLength > harness.getConfig().maxMessageInBytes) {
-                logger.error("Received service message length exceeds maximum: " + serviceDataLength + " > " + harness.getConfig().maxMessageInBytes, null);
-                continue;
+        }
+    }
+
+    private boolean isFragment(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == MessageCodec.VERSION_FRAGMENT;
+    }
+
+    private boolean isBatch(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == MessageCodec.VERSION_BATCH;
+    }
+
+    /**
+     * Decodes a received datagram or reassembled message and hands it to the processor.
+     * 
+     * @param bufferPool if non null the buffer is pooled and is released here or by the consumer of the message data
+     * @param reused     if true the caller reuses the buffer, so the message data is copied out of it
+     * @return false if the message was dropped
+     */
+    private boolean acceptMessage(ByteBuffer buffer, BufferPool bufferPool, boolean reused, InetAddress addressFrom, int portFrom) {
+        if (isFragment(buffer)) {
+            ByteBuffer message = fragmentReassembler.accept(buffer, addressFrom, portFrom);
+            if (bufferPool != null)
+                bufferPool.release(buffer);
+            return message == null || acceptMessage(message, null, false, addressFrom, portFrom);
+        }
+        if (isBatch(buffer)) {
+            boolean accepted = acceptBatch(buffer, addressFrom, portFrom);
+            if (bufferPool != null)
+                bufferPool.release(buffer);
+            return accepted;
+        }
+
+        MessageHeader header = decodeHeader(buffer);
+        ByteBuffer data = null;
+        if (header != null && header.uncompressedLength != null) {
+            data = decompress(header, buffer);
+            header.uncompressedLength = null;
+            if (data == null)
+                header = null;
+        } else if (header != null && buffer.hasRemaining()) {
+            if (!reused) {
+                harness.getProcessor().acceptMessageToMe(header, buffer, bufferPool, addressFrom, portFrom);
+                return true;
             }
+            byte[] serviceBytes = new byte[buffer.remaining()];
+            buffer.get(serviceBytes);
+            data = ByteBuffer.wrap(serviceBytes);
+        }
+        if (bufferPool != null)
+            bufferPool.release(buffer);
+        if (header == null)
+            return false;
+        harness.getProcessor().acceptMessageToMe(header, data, null, addressFrom, portFrom);
+        return true;
+    }
 
-            // header
-            MessageHeader header = null;
+    // The messages of a batch are copied out of it so the batch buffer can be released right away.
+    private boolean acceptBatch(ByteBuffer buffer, InetAddress addressFrom, int portFrom) {
+        buffer.get(); // version
+        while (buffer.hasRemaining()) {
+            int messageLength;
             try {
-                header = Util.jsonObjectFromBytes(packetData, HEADER_LENGTH_BYTES, headerLength, MessageHeader.class);
+                messageLength = (int)MessageCodec.getVarLong(buffer);
             } catch (Exception ex) {
-                logger.error("Unable to deserialize received service message header: " + new String(packetData, HEADER_LENGTH_BYTES, headerLength, StandardCharsets.UTF_8), ex);
-                continue;
+                messageLength = -1;
             }
-            if (header.serviceNameFrom == null || header.serviceNameFrom.isBlank() || header.serviceNameTo == null || header.serviceNameTo.isBlank() || (header.id != null && header.id <= 0)) {
-                logger.error("Bad service message received: " + Util.jsonStringFromObject(header), null);
-                continue;
+            if (messageLength <= 0 || messageLength > buffer.remaining()) {
+                logger.error("Received service message batch is malformed", null);
+                return false;
             }
-            if (!header.serviceNameTo.equals(harness.getConfig().serviceName)) {
-                logger.error("Received service message was intended for a different service: " + header.serviceNameTo + " != " + harness.getConfig().serviceName, null);
-                continue;
+            ByteBuffer message = buffer.duplicate();
+            message.limit(buffer.position() + messageLength);
+            buffer.position(message.limit());
+            if (message.get(message.position()) != MessageCodec.VERSION_1) {
+                logger.error("Received service message batch holds an unsupported message", null);
+                return false;
             }
+            acceptMessage(message, null, true, addressFrom, portFrom);
+        }
+        return true;
+    }
 
-            // data
-            byte[] serviceData = serviceDataLength == 0 ? null : new byte[serviceDataLength];
-            if (serviceDataLength > 0)
-                System.arraycopy(packetData, HEADER_LENGTH_BYTES + headerLength, serviceData, 0, serviceDataLength);
+    /**
+     * @return the decompressed data, or null if it cannot be decompressed
+     */
+    private ByteBuffer decompress(MessageHeader header, ByteBuffer buffer) {
+        if (compressor == null || header.uncompressedLength <= 0) {
+            logger.error("Received service message data is compressed but compression is not enabled", null);
+            return null;
+        }
+        long startNanos = System.nanoTime();
+        ByteBuffer data = ByteBuffer.allocate(header.uncompressedLength);
+        try {
+            compressor.decompress(buffer, data);
+        } catch (Exception ex) {
+            logger.error("Unable to decompress received service message data", ex);
+            return null;
+        }
+        data.flip();
+        messagesDecompressed.incrementAndGet();
+        decompressNanos.addAndGet(System.nanoTime() - startNanos);
+        return data;
+    }
 
-            harness.getProcessor().acceptMessageToMe(header, serviceData, packet.getAddress(), packet.getPort());
+    /**
+     * @return the validated header with the buffer positioned at the service data, or null if the message is to be dropped
+     */
+    private MessageHeader decodeHeader(ByteBuffer buffer) {
+        MessageHeader header = null;
+        try {
+            header = MessageCodec.decode(buffer);
+        } catch (Exception ex) {
+            logger.error("Unable to deserialize received service message header: " + ex.getMessage(), null);
+            return null;
+        }
+        if (header.serviceNameFrom == null || header.serviceNameFrom.isBlank() || header.serviceNameTo == null || header.serviceNameTo.isBlank() || (header.id != null && header.id <= 0) || (header.deadlineMillis != null && header.deadlineMillis < 0)) {
+            logger.error("Bad service message received: " + Util.jsonStringFromObject(header), null);
+            return null;
+        }
+        if (!header.serviceNameTo.equals(config.serviceName)) {
+            logger.error("Received service message was intended for a different service: " + header.serviceNameTo + " != " + config.serviceName, null);
+            return null;
+        }
+        int serviceDataLength = header.uncompressedLength == null ? buffer.remaining() : header.uncompressedLength;
+        if (serviceDataLength > config.maxMessageInBytes) {
+            logger.error("Received service message length exceeds maximum: " + serviceDataLength + " > " + config.maxMessageInBytes, null);
+            return null;
         }
+        return header;
     }
 
     /**
-     * @return true on success
+     * Sending state for one processor thread - the send buffers and packet are reused between calls, so a sender must
+     * only be used from its own processor thread.
      */
-    public boolean send(MessageHeader header, byte[] data, InetAddress addressTo, int portTo) {
-        int dataLength = data == null ? 0 : data.length;
-        if (dataLength > harness.getConfig().maxMessageOutBytes) {
-            logger.error("Sent message length exceeds maximum: " + dataLength + " > " + harness.getConfig().maxMessageOutBytes, null);
-            return false;
+    public class Sender {
+        private final DatagramSocket datagramSocket;
+        private final byte[] sendData;
+        private final ByteBuffer sendBuffer;
+        private final byte[] fragmentData;
+        private final ByteBuffer fragmentBuffer;
+        private final DatagramPacket sendPacket;
+        private final Coalescer coalescer; // null unless coalescing
+        private final byte[] compressData;
+
+        private Sender(DatagramSocket datagramSocket) {
+            this.datagramSocket = datagramSocket;
+            sendData = new byte[MessageHeader.MAX_BYTES + config.maxMessageOutBytes];
+            sendBuffer = ByteBuffer.wrap(sendData);
+            fragmentData = new byte[config.fragmentBytes];
+            fragmentBuffer = ByteBuffer.wrap(fragmentData);
+            sendPacket = new DatagramPacket(sendData, 0);
+            coalescer = config.coalesceBytes > 0 && !legacyWireFormat
+                    ? new Coalescer(datagramSocket, config.coalesceBytes, TimeUnit.MICROSECONDS.toNanos(config.coalesceLingerMicros))
+                    : null;
+            compressData = compressor == null ? null : new byte[config.maxMessageOutBytes];
         }
 
-        byte[] headerBytes = Util.jsonBytesFromObject(header);
-        int headerLength = headerBytes.length;
-        if (headerLength > MessageHeader.MAX_BYTES) {
-            logger.error("Sent header length exceeds maximum: " + headerLength + " > " + MessageHeader.MAX_BYTES, null);
-            return false;
+        /**
+         * Called after each pass over the outgoing messages.
+         * 
+         * @return nanos until the next coalesced batch is due to be sent, or Long.MAX_VALUE if there is none
+         */
+        public long flushCoalesced() {
+            if (coalescer == null)
+                return Long.MAX_VALUE;
+            try {
+                return coalescer.flush(false);
+            } catch (Exception ex) {
+                logger.error("Error sending coalesced service packet", ex);
+                return 0;
+            }
         }
 
-        byte[] udpMessage = new byte[HEADER_LENGTH_BYTES + headerLength + dataLength];
-        System.arraycopy(String.format("%0" + HEADER_LENGTH_BYTES + "d", headerLength).getBytes(StandardCharsets.UTF_8), 0, udpMessage, 0, HEADER_LENGTH_BYTES);
-        System.arraycopy(headerBytes, 0, udpMessage, HEADER_LENGTH_BYTES, headerLength);
-        if (data != null)
-            System.arraycopy(data, 0, udpMessage, HEADER_LENGTH_BYTES + headerLength, dataLength);
+        /**
+         * Binary messages larger than noqms.fragmentBytes are sent as fragments. Small binary messages are coalesced if
+         * configured.
+         * 
+         * @param compression the compressor name the receiver can decode, or null if none
+         * @return true on success
+         */
+        public boolean send(MessageHeader header, byte[] data, String compression, InetAddress addressTo, int portTo) {
+            int dataLength = data == null ? 0 : data.length;
+            if (dataLength > config.maxMessageOutBytes) {
+                logger.error("Sent message length exceeds maximum: " + dataLength + " > " + config.maxMessageOutBytes, null);
+                return false;
+            }
 
-        try {
-            datagramSocket.send(new DatagramPacket(udpMessage, udpMessage.length, addressTo, portTo));
-        } catch (Exception ex) {
-            logger.error("Error sending service packet", ex);
-            return false;
+            int compressedLength = -1;
+            if (compressor != null && !legacyWireFormat && dataLength > 0 && dataLength >= config.compressionThresholdBytes
+                    && compressor.getName().equals(compression)) {
+                long startNanos = System.nanoTime();
+                ByteBuffer compressBuffer = ByteBuffer.wrap(compressData, 0, dataLength - 1); // must come out smaller
+                try {
+                    compressedLength = compressor.compress(ByteBuffer.wrap(data), compressBuffer);
+                } catch (Exception ex) {
+                    logger.error("Pluggable compressor threw an exception in compress()", ex);
+                }
+                compressNanos.addAndGet(System.nanoTime() - startNanos);
+                if (compressedLength >= 0) {
+                    messagesCompressed.incrementAndGet();
+                    bytesBeforeCompression.addAndGet(dataLength);
+                    bytesAfterCompression.addAndGet(compressedLength);
+                }
+            }
+            header.uncompressedLength = compressedLength >= 0 ? dataLength : null;
+
+            sendBuffer.clear();
+            boolean encoded = legacyWireFormat ? MessageCodec.encodeLegacy(header, sendBuffer) : MessageCodec.encode(header, sendBuffer);
+            if (!encoded) {
+                logger.error("Sent header length exceeds maximum: " + MessageHeader.MAX_BYTES, null);
+                return false;
+            }
+            if (compressedLength >= 0)
+                sendBuffer.put(compressData, 0, compressedLength);
+            else if (data != null)
+                sendBuffer.put(data);
+
+            int messageLength = sendBuffer.position();
+            if (legacyWireFormat && messageLength > MAX_DATAGRAM_BYTES) {
+                logger.error("Sent message length exceeds the datagram maximum for the json wire format: " + messageLength + " > " + MAX_DATAGRAM_BYTES, null);
+                return false;
+            }
+
+            try {
+                sendPacket.setAddress(addressTo);
+                sendPacket.setPort(portTo);
+                if (coalescer != null && coalescer.fits(messageLength)) {
+                    coalescer.add(sendData, messageLength, addressTo, portTo);
+                } else if (legacyWireFormat || messageLength <= config.fragmentBytes) {
+                    sendPacket.setData(sendData, 0, messageLength);
+                    datagramSocket.send(sendPacket);
+                } else {
+                    sendFragments(messageLength);
+                }
+            } catch (Exception ex) {
+                logger.error("Error sending service packet", ex);
+                return false;
+            }
+
+            return true;
         }
 
-        return true;
+        private void sendFragments(int messageLength) throws Exception {
+            long messageId = fragmentMessageIdGenerator.incrementAndGet();
+            int chunkLength = config.fragmentBytes - MessageCodec.FRAGMENT_HEADER_MAX_BYTES;
+            int count = (messageLength + chunkLength - 1) / chunkLength;
+            sendPacket.setData(fragmentData);
+            for (int index = 0; index < count; index++) {
+                int offset = index * chunkLength;
+                int length = Math.min(chunkLength, messageLength - offset);
+                fragmentBuffer.clear();
+                MessageCodec.encodeFragmentHeader(fragmentBuffer, messageId, index, count, messageLength, offset);
+                fragmentBuffer.put(sendData, offset, length);
+                sendPacket.setLength(fragmentBuffer.position());
+                datagramSocket.send(sendPacket);
+                fragmentsSent.incrementAndGet();
+            }
+        }
     }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.framework;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel with one millisecond ticks. Used by the processor thread alone. Entries are linked into the slot
+ * for their deadline tick, so adding and cancelling are constant time, and each tick only visits the entries sharing
+ * its slot. Entries further out than one turn of the wheel stay in their slot until their turn comes around. A bit per
+ * slot marks those with entries, so the next deadline is found without visiting the entries.
+ *
+ * @author Stanley Barzee
+ * @since 1.2.0
+ */
+public class TimingWheel<E extends TimingWheel.Entry> {
+    private static final int SLOTS = 1024; // power of two
+    private static final int MASK = SLOTS - 1;
+
+    private final Entry[] slots = new Entry[SLOTS];
+    private final long[] occupied = new long[SLOTS / 64]; // a bit per slot with entries
+    private final Entry expired = Entry.sentinel();
+    private long currentTick;
+    private int size;
+
+    public TimingWheel() {
+        for (int ix = 0; ix < SLOTS; ix++)
+            slots[ix] = Entry.sentinel();
+        currentTick = currentTick();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param entry an entry not already in a wheel
+     */
+    public void add(E entry, long timeoutMillis) {
+        long tick = Math.max(currentTick() + timeoutMillis, currentTick + 1);
+        Entry node = entry;
+        node.deadlineTick = tick;
+        int index = (int)(tick & MASK);
+        node.linkBefore(slots[index]);
+        occupied[index >>> 6] |= 1L << index;
+        size++;
+    }
+
+    /**
+     * @return false if the entry had already expired or been cancelled
+     */
+    public boolean cancel(E entry) {
+        Entry node = entry;
+        if (node.next == null)
+            return false;
+        node.unlink();
+        clearIfEmpty((int)(node.deadlineTick & MASK));
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the current time as needed.
+     *
+     * @return the next entry whose deadline has passed, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        if (expired.next == expired)
+            advance(currentTick());
+        Entry entry = expired.next;
+        if (entry == expired)
+            return null;
+        entry.unlink();
+        size--;
+        return (E)entry;
+    }
+
+    /**
+     * Goes by the next slot with entries, so may come short when that slot holds only entries of a later turn of the
+     * wheel - a wait cut short, never one too long.
+     *
+     * @return nanos until the next deadline, or Long.MAX_VALUE if the wheel is empty
+     */
+    public long getNanosUntilNextExpiry() {
+        if (size == 0)
+            return Long.MAX_VALUE;
+        if (expired.next != expired)
+            return 0;
+        long tick = currentTick + 1 + slotsToNextOccupied((int)((currentTick + 1) & MASK));
+        return Math.max(0, TimeUnit.MILLISECONDS.toNanos(tick - currentTick()));
+    }
+
+    // Slots from the given one, going around the wheel, to the first with entries - SLOTS if none has.
+    private int slotsToNextOccupied(int fromIndex) {
+        int word = fromIndex >>> 6;
+        long bits = occupied[word] & (-1L << fromIndex);
+        for (int count = 0; count <= occupied.length; count++) {
+            if (bits != 0)
+                return ((word << 6) + Long.numberOfTrailingZeros(bits) - fromIndex) & MASK;
+            word = (word + 1) % occupied.length;
+            bits = occupied[word];
+        }
+        return SLOTS;
+    }
+
+    private void clearIfEmpty(int index) {
+        if (slots[index].next == slots[index])
+            occupied[index >>> 6] &= ~(1L << index);
+    }
+
+    private void advance(long nowTick) {
+        if (nowTick - currentTick >= SLOTS) {
+            // a long pause - one pass over every slot catches everything due
+            for (int index = 0; index < SLOTS; index++)
+                expireSlot(index, nowTick);
+        } else {
+            for (long tick = currentTick + 1; tick <= nowTick; tick++)
+                expireSlot((int)(tick & MASK), tick);
+        }
+        if (nowTick > currentTick)
+            currentTick = nowTick;
+    }
+
+    private void expireSlot(int index, long tick) {
+        Entry slot = slots[index];
+        Entry entry = slot.next;
+        while (entry != slot) {
+            Entry next = entry.next;
+            if (entry.deadlineTick <= tick) {
+                entry.unlink();
+                entry.linkBefore(expired);
+            }
+            entry = next;
+        }
+        clearIfEmpty(index);
+    }
+
+    private static long currentTick() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Base class for anything kept in a wheel. The links are held in the entry itself so a wheel never allocates.
+     */
+    public static class Entry {
+        private Entry previous;
+        private Entry next;
+        private long deadlineTick;
+
+        protected Entry() {
+        }
+
+        // heads each list, linked to itself when the list is empty
+        private static Entry sentinel() {
+            Entry sentinel = new Entry();
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        private void linkBefore(Entry at) {
+            previous = at.previous;
+            next = at;
+            at.previous.next = this;
+            at.previous = this;
+        }
+
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.noqms.framework;
 import java.net.DatagramSocket;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
@@ -83,6 +84,21 @@ public class Util {
         }
     }
 
+    /**
+     * @return the remaining bytes of the buffer without copying if the buffer wraps exactly an array, else a copy - null
+     *         if there are none
+     */
+    public static byte[] bytesFromBuffer(ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasRemaining())
+            return null;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.limit() == buffer.array().length)
+            return buffer.array();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
     public static String jsonStringFromObject(Object object) {
         return gsonPretty.toJson(object);
     }